@@ -0,0 +1,116 @@
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+
+/*
+ * Andrew Montgomery, Daniel Yakovlev
+ * Asynchronous file I/O for the kernel. SysLib.readAsync and writeAsync queue a positional read or write here and
+ * return at once with a future. A few kernel I/O threads take the requests in order and run them through the file
+ * system, so the disk has as many requests at a time as there are I/O threads, and each request's future is
+ * completed by the I/O thread that served it once its disk I/O is done. The file system's reads hold the inode's
+ * lock, which belongs to the thread that took it, so a request is served start to end by one I/O thread. The
+ * caller's thread never waits, and it can keep any number of requests queued. A queued request pins the file's
+ * inode in the inode table until its future is completed, so the file can be closed while it is pending and the
+ * request still changes the inode the file system knows.
+ */
+
+public class AsyncIO {
+    private final static int THREADS = 8;               // # requests served at the same time
+
+    private FileSystem fs;                              // the file system the requests go to
+    private ArrayDeque<Request> pending;                // requests waiting for an I/O thread, oldest first
+
+    /*
+     * One queued read or write and its future. SysLib makes it and passes it to the kernel as the argument of the
+     * call, and submit fills in the rest
+     */
+    static class Request {
+        final byte[] buffer;
+        final int offset;
+        final CompletableFuture<Integer> future;
+        boolean write;
+        FileTableEntry ftEnt;
+
+        Request(byte[] buffer, int offset, CompletableFuture<Integer> future)
+        {
+            this.buffer = buffer;
+            this.offset = offset;
+            this.future = future;
+        }
+    }
+
+    /*
+     * Constructor for AsyncIO. Starts the I/O threads
+     * @Param fs: The file system the requests go to
+     */
+    public AsyncIO(FileSystem fs)
+    {
+        this.fs = fs;
+        pending = new ArrayDeque<Request>();
+        for(int i = 0; i < THREADS; i++)
+        {
+            Thread thread = new Thread(this::run, "threadOS-aio-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /*
+     * Method that queues a positional read or write and returns right away. The file's inode is pinned until the
+     * future is completed, so the file can be closed before its requests are served
+     * @Param write: Whether the request writes the buffer to the file, otherwise it reads into the buffer
+     * @Param ftEnt: The entry in the FileTable for the file
+     * @Param request: The buffer, where the request starts in the file, and the future completed with the number
+     * of bytes read or written, or -1 on error
+     */
+    public synchronized void submit(boolean write, FileTableEntry ftEnt, Request request)
+    {
+        fs.pin(ftEnt);
+        request.write = write;
+        request.ftEnt = ftEnt;
+        pending.add(request);
+        notify();
+    }
+
+    /*
+     * The I/O threads: serve the queued requests one at a time, and complete their futures
+     */
+    private void run()
+    {
+        while(true)
+        {
+            Request request = next();
+            int result = -1;
+            Throwable failure = null;
+            try {
+                result = request.write
+                        ? fs.pwrite(request.ftEnt, request.buffer, request.offset)
+                        : fs.pread(request.ftEnt, request.buffer, request.offset);
+            } catch (Throwable e) {                             // Even an Error completes the future, and the
+                failure = e;                                    // thread goes on with the next request
+            }
+            fs.unpin(request.ftEnt);                            // Before the caller can see the result
+            if(failure == null)
+            {
+                request.future.complete(result);
+            } else {
+                request.future.completeExceptionally(failure);
+            }
+        }
+    }
+
+    /*
+     * Method that takes the oldest request, waiting if there is none
+     * @Return Request: The request
+     */
+    private synchronized Request next()
+    {
+        while(pending.isEmpty())
+        {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+            }
+        }
+        return pending.remove();
+    }
+}
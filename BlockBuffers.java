@@ -0,0 +1,162 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/*
+ * Andrew Montgomery, Daniel Yakovlev
+ * Scratch buffers for block I/O, kept per thread so the read and write paths do not allocate a new array for
+ * every block they move. Each thread has one buffer of each kind, and it is reused by the next call of the same
+ * kind on that thread, so a buffer is only good until the caller asks for another of the same kind. The block
+ * buffer is for code that reads or writes one block and is done with it; the multi-block buffer and the block
+ * number array are for FileSystem's read and write. Nothing that is kept after a call may be one of these. The
+ * buffers follow the file system's block size, and are replaced the next time they are asked for once it changes.
+ *
+ * A platform thread keeps its buffers for as long as it lives. There can be thousands of virtual threads, so a
+ * virtual thread only leases a set of buffers: it takes one from a shared pool the first time it asks for a buffer
+ * in a system call, and gives it back when the outermost system call returns (Kernel.interrupt calls enter and
+ * leave). The pool keeps at most POOLED sets, so the memory used for buffers follows the number of system calls
+ * running at once and not the number of threads.
+ */
+
+public class BlockBuffers {
+    private static final int POOLED = 64;               // most sets kept between the system calls of virtual threads
+    private static final Method isVirtual = lookupIsVirtual();
+    private static final ArrayBlockingQueue<BlockBuffers> pool = new ArrayBlockingQueue<BlockBuffers>(POOLED);
+    private static final ThreadLocal<Lease> leases = new ThreadLocal<Lease>() {
+        protected Lease initialValue()
+        {
+            return new Lease(virtual(Thread.currentThread()));
+        }
+    };
+
+    /*
+     * The set of buffers a thread is using, if any
+     */
+    private static class Lease {
+        final boolean pooled;                           // the set goes back to the pool after each system call
+        int depth;                                      // # system calls the thread is in, they can nest
+        BlockBuffers set;                               // null until the thread asks for a buffer
+
+        Lease(boolean pooled)
+        {
+            this.pooled = pooled;
+        }
+    }
+
+    private byte[] block;                               // one block
+    private byte[] blocks;                              // several blocks, one after the other
+    private int[] blockIds;                             // block numbers
+
+    private BlockBuffers()
+    {
+        block = new byte[FileSystem.blockSize];
+        blocks = new byte[0];
+        blockIds = new int[0];
+    }
+
+    /*
+     * @Return byte[]: This thread's one block buffer
+     */
+    public static byte[] block()
+    {
+        BlockBuffers mine = mine();
+        if(mine.block.length != FileSystem.blockSize)
+        {
+            mine.block = new byte[FileSystem.blockSize];
+        }
+        return mine.block;
+    }
+
+    /*
+     * Method that returns this thread's buffer for several blocks, growing it if it is too small
+     * @Param count: The number of blocks the buffer must hold
+     * @Return byte[]: The buffer, at least count blocks long
+     */
+    public static byte[] blocks(int count)
+    {
+        BlockBuffers mine = mine();
+        if(mine.blocks.length < count * FileSystem.blockSize)
+        {
+            mine.blocks = new byte[count * FileSystem.blockSize];
+        }
+        return mine.blocks;
+    }
+
+    /*
+     * Method that returns this thread's array of block numbers, growing it if it is too small
+     * @Param count: The number of block numbers the array must hold
+     * @Return int[]: The array, at least count long
+     */
+    public static int[] blockIds(int count)
+    {
+        BlockBuffers mine = mine();
+        if(mine.blockIds.length < count)
+        {
+            mine.blockIds = new int[count];
+        }
+        return mine.blockIds;
+    }
+
+    /*
+     * Method called when the current thread enters a system call
+     */
+    public static void enter()
+    {
+        leases.get().depth++;
+    }
+
+    /*
+     * Method called when the current thread returns from a system call. A virtual thread that returns from its
+     * outermost call gives its buffers back, they may not be used after this
+     */
+    public static void leave()
+    {
+        Lease lease = leases.get();
+        if(--lease.depth == 0 && lease.pooled && lease.set != null)
+        {
+            pool.offer(lease.set);                      // Dropped if the pool is full
+            lease.set = null;
+        }
+    }
+
+    /*
+     * @Return BlockBuffers: The set of buffers of the current thread, taken from the pool or made if it has none
+     */
+    private static BlockBuffers mine()
+    {
+        Lease lease = leases.get();
+        if(lease.set == null)
+        {
+            lease.set = pool.poll();
+            if(lease.set == null)
+            {
+                lease.set = new BlockBuffers();
+            }
+        }
+        return lease.set;
+    }
+
+    /*
+     * @Return Method: Thread.isVirtual, or null before Java 21
+     */
+    private static Method lookupIsVirtual()
+    {
+        try {
+            return Thread.class.getMethod("isVirtual");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /*
+     * @Param thread: A thread
+     * @Return boolean: Returns true if it is a virtual thread
+     */
+    private static boolean virtual(Thread thread)
+    {
+        try {
+            return isVirtual != null && (Boolean) isVirtual.invoke(thread);
+        } catch (ReflectiveOperationException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,658 @@
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Andrew Montgomery, Daniel Yakovlev
+ * Block cache used by the file system. Keeps a fixed number of disk blocks in memory so that repeated
+ * accesses to the same block do not go through the disk thread. Victims are chosen with the enhanced
+ * second-chance algorithm, and modified blocks are only written back to the disk when they are evicted or
+ * when the cache is synced. Several blocks can be read or written in one call; the blocks that miss are read
+ * from the disk with one vectored request, and a sync writes every dirty block with one vectored request.
+ *
+ * Blocks are read from the disk without holding the cache's lock, so other threads keep being served from
+ * memory while a miss or a prefetch is waiting for the disk. The frame being filled is marked as loading, and
+ * threads that need its block wait until it is filled. A thread never waits while it holds frames pinned, so
+ * two threads cannot wait for each other's frames.
+ *
+ * The lock is a ReentrantLock and the waiting is done on its condition, not on a monitor: evictions and syncs write
+ * to the disk with the lock held, and a virtual thread blocked on a monitor would pin its carrier thread.
+ */
+
+public class BlockCache {
+    private final static int POOLED_SCRATCH = 16;   // most Scratch sets kept for reuse
+
+    private final int blockSize;                    // size of a cached block in bytes
+    private final byte[][] frames;                  // cached block data
+    private final int[] frameBlock;                 // disk block held by each frame, -1 if the frame is empty
+    private final boolean[] reference;              // reference bit of each frame
+    private final boolean[] dirty;                  // dirty bit of each frame
+    private final int[] pins;                       // # calls still using each frame, pinned frames are never victims
+    private final boolean[] loading;                // frames whose block is still being read from the disk
+    private final int[] blockFrame;                 // frame holding each disk block, -1 if it is not cached
+    private int victim;                             // clock hand used by the second-chance search
+    private final ReentrantLock lock;               // guards everything but the frame contents being loaded
+    private final Condition changed;                // signalled when a frame is loaded or unpinned
+    private final int batch;                        // # blocks in one vectored read
+    private final ArrayDeque<Scratch> scratch;      // arrays used by readv and prefetch, taken for one call
+    private final int[] syncBlocks;                 // arrays used by sync, which holds the lock throughout
+    private final byte[][] syncBuffers;
+
+    private long hits;                              // # block accesses served from memory
+    private long misses;                            // # block accesses that had to go to the disk
+
+    /*
+     * The arrays a vectored read needs for one batch of blocks, taken from the pool by a call and given back
+     */
+    private static class Scratch {
+        final int[] used;                           // the frame pinned for each block of the batch
+        final int[] missBlocks;                     // the blocks read from the disk
+        final byte[][] missFrames;                  // the frames they are read into
+        final int[] missed;                         // the indexes of those frames
+
+        Scratch(int batch)
+        {
+            used = new int[batch];
+            missBlocks = new int[batch];
+            missFrames = new byte[batch][];
+            missed = new int[batch];
+        }
+    }
+
+    /*
+     * Constructor for the BlockCache.
+     * @Param blockSize: The size of each block in bytes
+     * @Param cacheBlocks: The number of blocks the cache can hold
+     * @Param diskBlocks: The number of blocks on the disk that is being cached
+     */
+    public BlockCache(int blockSize, int cacheBlocks, int diskBlocks)
+    {
+        this.blockSize = blockSize;
+        frames = new byte[cacheBlocks][blockSize];
+        frameBlock = new int[cacheBlocks];
+        reference = new boolean[cacheBlocks];
+        dirty = new boolean[cacheBlocks];
+        pins = new int[cacheBlocks];
+        loading = new boolean[cacheBlocks];
+        for(int i = 0; i < cacheBlocks; i++)
+        {
+            frameBlock[i] = -1;
+        }
+        blockFrame = new int[diskBlocks];
+        for(int i = 0; i < diskBlocks; i++)
+        {
+            blockFrame[i] = -1;
+        }
+        victim = 0;
+        lock = new ReentrantLock();
+        changed = lock.newCondition();
+        batch = Math.max(1, cacheBlocks / 2);           // Half the frames stay free for victims
+        scratch = new ArrayDeque<Scratch>();
+        syncBlocks = new int[cacheBlocks];
+        syncBuffers = new byte[cacheBlocks][];
+    }
+
+    /*
+     * Method that reads a block into the buffer, loading it from the disk if it is not cached
+     * @Param blockId: The disk block to read
+     * @Param buffer: The buffer that receives the block data
+     * @Return boolean: Returns false if the block number is invalid or the buffer is too short, otherwise true
+     */
+    public boolean read(int blockId, byte[] buffer)
+    {
+        if(blockId < 0 || blockId >= blockFrame.length || buffer.length < blockSize)
+        {
+            return false;
+        }
+
+        int frame;
+        lock.lock();
+        try {
+            while(mustWait(blockId))
+            {
+                await();
+            }
+            frame = blockFrame[blockId];
+            if(frame != -1)                             // Cache hit
+            {
+                hits++;
+                System.arraycopy(frames[frame], 0, buffer, 0, blockSize);
+                reference[frame] = true;
+                return true;
+            }
+            misses++;                                   // Cache miss, bring the block in from the disk
+            frame = reserve(blockId);
+        } finally {
+            lock.unlock();
+        }
+
+        SysLib.rawread(blockId, frames[frame]);
+
+        lock.lock();
+        try {
+            loaded(frame);
+            System.arraycopy(frames[frame], 0, buffer, 0, blockSize);
+            reference[frame] = true;
+            unpin(frame);
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    /*
+     * Method that writes the buffer into the cached copy of a block. The block is only marked dirty, and
+     * reaches the disk when it is evicted or synced.
+     * @Param blockId: The disk block to write
+     * @Param buffer: The data to write
+     * @Return boolean: Returns false if the block number is invalid or the buffer is too short, otherwise true
+     */
+    public boolean write(int blockId, byte[] buffer)
+    {
+        lock.lock();
+        try {
+            if(blockId < 0 || blockId >= blockFrame.length || buffer.length < blockSize)
+            {
+                return false;
+            }
+
+            writeFrame(blockId, buffer, 0);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Method that reads several blocks into consecutive parts of the buffer. The blocks that are not cached are
+     * read from the disk together, with one vectored request for every half cache worth of blocks. Fewer blocks
+     * go in one request if the frames run out or a block is being loaded by another thread.
+     * @Param blockIds: The disk blocks to read
+     * @Param count: The number of blocks to read
+     * @Param buffer: Receives the blocks, block i at i * blockSize
+     * @Return boolean: Returns false if a block number is invalid or the buffer is too short, otherwise true
+     */
+    public boolean readv(int[] blockIds, int count, byte[] buffer)
+    {
+        if(!valid(blockIds, count) || buffer.length < count * blockSize)
+        {
+            return false;
+        }
+
+        Scratch mine = takeScratch();
+        int[] used = mine.used;
+        int[] missBlocks = mine.missBlocks;
+        byte[][] missFrames = mine.missFrames;
+        int[] missed = mine.missed;
+        int start = 0;
+        while(start < count)
+        {
+            int end = start;
+            int missing = 0;
+            lock.lock();
+            try {
+                while(end < count && end - start < batch)   // Find or make a frame for every block, and pin it
+                {
+                    if(mustWait(blockIds[end]))
+                    {
+                        if(end > start)                     // Serve the pinned blocks before waiting
+                        {
+                            break;
+                        }
+                        await();
+                        continue;
+                    }
+                    int frame = blockFrame[blockIds[end]];
+                    if(frame != -1)
+                    {
+                        hits++;
+                        pins[frame]++;
+                    } else {
+                        misses++;
+                        frame = reserve(blockIds[end]);
+                        missBlocks[missing] = blockIds[end];
+                        missFrames[missing] = frames[frame];
+                        missed[missing++] = frame;
+                    }
+                    used[end - start] = frame;
+                    end++;
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if(missing > 0)
+            {
+                SysLib.rawreadv(missBlocks, missing, missFrames);
+            }
+
+            lock.lock();
+            try {
+                for(int i = 0; i < missing; i++)
+                {
+                    loaded(missed[i]);
+                }
+                for(int i = start; i < end; i++)        // Everything is in memory now
+                {
+                    int frame = used[i - start];
+                    System.arraycopy(frames[frame], 0, buffer, i * blockSize, blockSize);
+                    reference[frame] = true;
+                    unpin(frame);
+                }
+            } finally {
+                lock.unlock();
+            }
+            start = end;
+        }
+        giveScratch(mine);
+        return true;
+    }
+
+    /*
+     * Method that writes consecutive parts of the buffer into several cached blocks. Like write, the blocks are
+     * only marked dirty.
+     * @Param blockIds: The disk blocks to write
+     * @Param count: The number of blocks to write
+     * @Param buffer: The data to write, block i at i * blockSize
+     * @Return boolean: Returns false if a block number is invalid or the buffer is too short, otherwise true
+     */
+    public boolean writev(int[] blockIds, int count, byte[] buffer)
+    {
+        lock.lock();
+        try {
+            if(!valid(blockIds, count) || buffer.length < count * blockSize)
+            {
+                return false;
+            }
+
+            for(int i = 0; i < count; i++)
+            {
+                writeFrame(blockIds[i], buffer, i * blockSize);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Method that loads blocks into the cache ahead of their use. Blocks that are cached, or being loaded, are
+     * skipped, and the rest are read with one vectored request. At most a quarter of the cache is filled per
+     * call, and nothing is loaded if every frame is in use, since a prefetch is only a hint. Nothing is copied
+     * out; a later read finds the blocks cached.
+     * @Param blockIds: The disk blocks that will be read soon
+     * @Param count: The number of blocks
+     * @Return boolean: Returns false if a block number is invalid, otherwise true
+     */
+    public boolean prefetch(int[] blockIds, int count)
+    {
+        if(!valid(blockIds, count))
+        {
+            return false;
+        }
+
+        int limit = Math.min(count, Math.max(1, frames.length / 4));
+        Scratch mine = takeScratch();
+        int[] missBlocks = mine.missBlocks;
+        byte[][] missFrames = mine.missFrames;
+        int[] missed = mine.missed;
+        int missing = 0;
+        lock.lock();
+        try {
+            for(int i = 0; i < count && missing < limit && hasVictim(); i++)
+            {
+                if(blockFrame[blockIds[i]] == -1)
+                {
+                    int frame = reserve(blockIds[i]);
+                    missBlocks[missing] = blockIds[i];
+                    missFrames[missing] = frames[frame];
+                    missed[missing++] = frame;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if(missing == 0)
+        {
+            giveScratch(mine);
+            return true;
+        }
+
+        SysLib.rawreadv(missBlocks, missing, missFrames);
+
+        lock.lock();
+        try {
+            for(int i = 0; i < missing; i++)
+            {
+                loaded(missed[i]);
+                reference[missed[i]] = true;            // Keep it through one sweep of the clock hand
+                unpin(missed[i]);
+            }
+        } finally {
+            lock.unlock();
+        }
+        giveScratch(mine);
+        return true;
+    }
+
+    /*
+     * Method that writes every dirty block back to the disk, with one vectored request. The blocks stay cached.
+     * SysLib.sync still has to be called for the disk itself to be synchronized.
+     */
+    public void sync()
+    {
+        lock.lock();
+        try {
+            int count = 0;
+            for(int i = 0; i < frames.length; i++)
+            {
+                if(frameBlock[i] != -1 && dirty[i])
+                {
+                    syncBlocks[count] = frameBlock[i];
+                    syncBuffers[count++] = frames[i];
+                    dirty[i] = false;
+                }
+            }
+            if(count > 0)
+            {
+                SysLib.rawwritev(syncBlocks, count, syncBuffers);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Method that writes every dirty block back to the disk and empties the cache. Waits until no frame is in use.
+     */
+    public void flush()
+    {
+        lock.lock();
+        try {
+            while(inUse())
+            {
+                await();
+            }
+            for(int i = 0; i < frames.length; i++)
+            {
+                writeBack(i);
+                if(frameBlock[i] != -1)
+                {
+                    blockFrame[frameBlock[i]] = -1;
+                    frameBlock[i] = -1;
+                }
+                reference[i] = false;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * @Return long: The number of accesses that were served from the cache
+     */
+    public long getHits()
+    {
+        lock.lock();
+        try {
+            return hits;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * @Return long: The number of accesses that had to go to the disk
+     */
+    public long getMisses()
+    {
+        lock.lock();
+        try {
+            return misses;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Method that copies one block of data into the cached copy of a block and marks it dirty. The whole block
+     * is overwritten, so a block that is not cached is not read from the disk first. The caller must hold the lock
+     * @Param blockId: The disk block to write
+     * @Param buffer: The data to write
+     * @Param offset: Where the block's data starts in the buffer
+     */
+    private void writeFrame(int blockId, byte[] buffer, int offset)
+    {
+        while(mustWait(blockId))                        // A block being loaded would overwrite the new data
+        {
+            await();
+        }
+        int frame = blockFrame[blockId];
+        if(frame != -1)
+        {
+            hits++;
+        } else {
+            misses++;
+            frame = findVictim();
+            load(frame, blockId);
+        }
+        System.arraycopy(buffer, offset, frames[frame], 0, blockSize);
+        reference[frame] = true;
+        dirty[frame] = true;
+    }
+
+    /*
+     * Method that checks whether a block can not be served right now: it is being loaded by another call, or it
+     * is not cached and every frame is in use. The caller must hold the lock
+     * @Param blockId: The disk block
+     * @Return boolean: Returns true if the caller has to wait
+     */
+    private boolean mustWait(int blockId)
+    {
+        int frame = blockFrame[blockId];
+        return (frame != -1) ? loading[frame] : !hasVictim();
+    }
+
+    /*
+     * Method that waits until a frame is loaded or unpinned. The caller must hold the lock
+     */
+    private void await()
+    {
+        changed.awaitUninterruptibly();
+    }
+
+    /*
+     * Method that takes a frame for a block that will be read from the disk without the lock. The frame is
+     * pinned and marked as loading until loaded and unpin are called. The caller must hold the lock
+     * @Param blockId: The disk block
+     * @Return int: The frame
+     */
+    private int reserve(int blockId)
+    {
+        int frame = findVictim();
+        load(frame, blockId);
+        loading[frame] = true;
+        pins[frame]++;
+        return frame;
+    }
+
+    /*
+     * Method that marks a reserved frame as filled and wakes up the threads waiting for its block. The caller
+     * must hold the lock
+     * @Param frame: The frame
+     */
+    private void loaded(int frame)
+    {
+        loading[frame] = false;
+        changed.signalAll();
+    }
+
+    /*
+     * Method that releases a pin, waking up the threads waiting for a free frame. The caller must hold the lock
+     * @Param frame: The frame
+     */
+    private void unpin(int frame)
+    {
+        if(--pins[frame] == 0)
+        {
+            changed.signalAll();
+        }
+    }
+
+    /*
+     * @Return boolean: Returns true if some frame is not pinned, so findVictim can be called
+     */
+    private boolean hasVictim()
+    {
+        for(int i = 0; i < frames.length; i++)
+        {
+            if(pins[i] == 0)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * @Return boolean: Returns true if some frame is pinned
+     */
+    private boolean inUse()
+    {
+        for(int i = 0; i < frames.length; i++)
+        {
+            if(pins[i] > 0)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Method that picks the frame to be replaced using the enhanced second-chance algorithm. Frames are
+     * searched in order of (reference, dirty): (0, 0) first, then (0, 1), clearing reference bits on the way.
+     * The chosen frame is written back if it is dirty and detached from its old block. Some frame must not be
+     * pinned.
+     * @Return int: The index of the free frame
+     */
+    private int findVictim()
+    {
+        int frame = -1;
+        for(int i = 0; i < frames.length; i++)          // Use an empty frame if there is one
+        {
+            if(frameBlock[i] == -1 && pins[i] == 0)
+            {
+                return i;
+            }
+        }
+
+        while(frame == -1)
+        {
+            for(int i = 0; i < frames.length && frame == -1; i++)       // Look for (0, 0)
+            {
+                int next = (victim + i) % frames.length;
+                if(!reference[next] && !dirty[next] && pins[next] == 0)
+                {
+                    frame = next;
+                }
+            }
+            for(int i = 0; i < frames.length && frame == -1; i++)       // Look for (0, 1), clearing the
+            {                                                           // reference bits as we go
+                int next = (victim + i) % frames.length;
+                if(!reference[next] && dirty[next] && pins[next] == 0)
+                {
+                    frame = next;
+                } else {
+                    reference[next] = false;
+                }
+            }
+        }
+        victim = (frame + 1) % frames.length;
+
+        writeBack(frame);
+        blockFrame[frameBlock[frame]] = -1;
+        frameBlock[frame] = -1;
+        return frame;
+    }
+
+    /*
+     * Method that takes a set of arrays for one readv or prefetch call, making a new set if none is free
+     * @Return Scratch: The arrays, to be given back with giveScratch
+     */
+    private Scratch takeScratch()
+    {
+        lock.lock();
+        try {
+            Scratch mine = scratch.poll();
+            return (mine != null) ? mine : new Scratch(batch);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Method that gives back the arrays taken by takeScratch. At most POOLED_SCRATCH sets are kept, so the memory
+     * used for them follows the number of calls running at once, not the number of threads that ever called
+     * @Param mine: The arrays
+     */
+    private void giveScratch(Scratch mine)
+    {
+        lock.lock();
+        try {
+            if(scratch.size() < POOLED_SCRATCH)
+            {
+                scratch.push(mine);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Method that checks the block numbers of a vectored request
+     * @Param blockIds: The disk blocks
+     * @Param count: The number of blocks
+     * @Return boolean: Returns true if every block number is valid
+     */
+    private boolean valid(int[] blockIds, int count)
+    {
+        if(count < 0 || count > blockIds.length)
+        {
+            return false;
+        }
+        for(int i = 0; i < count; i++)
+        {
+            if(blockIds[i] < 0 || blockIds[i] >= blockFrame.length)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Method that attaches a frame to a disk block
+     * @Param frame: The frame being filled
+     * @Param blockId: The disk block the frame now holds
+     */
+    private void load(int frame, int blockId)
+    {
+        frameBlock[frame] = blockId;
+        blockFrame[blockId] = frame;
+        dirty[frame] = false;
+    }
+
+    /*
+     * Method that writes a frame back to the disk if it is dirty
+     * @Param frame: The frame to write back
+     */
+    private void writeBack(int frame)
+    {
+        if(frameBlock[frame] != -1 && dirty[frame])
+        {
+            SysLib.rawwrite(frameBlock[frame], frames[frame]);
+            dirty[frame] = false;
+        }
+    }
+}
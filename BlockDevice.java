@@ -0,0 +1,70 @@
+/*
+ * Andrew Montgomery, Daniel Yakovlev
+ * Interface of the block device under SysLib.rawread, rawwrite and sync. The kernel picks the implementation at
+ * boot: ThreadedDisk hands every request to the ThreadOS Disk thread, MappedDisk maps the disk image file into
+ * memory. Every method returns once the request is done.
+ */
+
+public interface BlockDevice {
+    /*
+     * @Return int: The number of blocks on the device
+     */
+    int blocks();
+
+    /*
+     * Method that changes the size of the blocks the device is addressed in. Block numbers after the change count
+     * blocks of the new size, and the blocks past the last whole one are not used. The device must be idle
+     * @Param blockSize: The block size in bytes, a multiple of Disk.blockSize
+     */
+    void setBlockSize(int blockSize);
+
+    /*
+     * Method that reads a block into the buffer
+     * @Param blockId: The block to read
+     * @Param buffer: Receives the block, at least one block long
+     * @Return boolean: Returns false if the block number is invalid, otherwise true
+     */
+    boolean read(int blockId, byte[] buffer);
+
+    /*
+     * Method that writes the buffer to a block
+     * @Param blockId: The block to write
+     * @Param buffer: The data to write, at least one block long
+     * @Return boolean: Returns false if the block number is invalid, otherwise true
+     */
+    boolean write(int blockId, byte[] buffer);
+
+    /*
+     * Method that reads several blocks as one request, each into its own buffer. The device may serve them in
+     * any order, and returns once all of them are read
+     * @Param blockIds: The blocks to read
+     * @Param buffers: Receive the blocks, buffers[i] receives blockIds[i]
+     * @Param count: The number of blocks to read
+     * @Return boolean: Returns false if a block number is invalid, then nothing is read
+     */
+    boolean readv(int[] blockIds, byte[][] buffers, int count);
+
+    /*
+     * Method that writes several blocks as one request, each from its own buffer. The device may serve them in
+     * any order, and returns once all of them are written
+     * @Param blockIds: The blocks to write
+     * @Param buffers: The data to write, buffers[i] is written to blockIds[i]
+     * @Param count: The number of blocks to write
+     * @Return boolean: Returns false if a block number is invalid, then nothing is written
+     */
+    boolean writev(int[] blockIds, byte[][] buffers, int count);
+
+    /*
+     * Method that makes every write so far permanent in the disk image file
+     * @Return boolean: Returns true once the device is synchronized
+     */
+    boolean sync();
+
+    /*
+     * Method that orders the writes to the disk image file: every write made before the call reaches the file
+     * before any write made after it. Used by the journal, whose commit block must not be in the file before
+     * the blocks it commits
+     * @Return boolean: Returns true once the earlier writes are ordered
+     */
+    boolean barrier();
+}
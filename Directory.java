@@ -1,26 +1,49 @@
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  *  Andrew Montgomery, Daniel Yakovlev
- *  Directory class that holds the different file names that are stored on the disk and the inode number for them
+ *  Directory class that holds the different file names that are stored on the disk and the inode number for them.
+ *  Every entry records the directory it belongs to, so entries can themselves be directories and files are named
+ *  by paths such as "/logs/2024/app.log". The entries of all directories are kept in this one table, which is
+ *  stored in the "/" file (inode 0).
  */
 
 public class Directory {
     private static int maxChars = 30; // max characters of each file name
     private static final int FILE_ENTRY = 64; //max size of each file
+    private static final int maxDentries = 256; // max resolved paths kept in the dentry cache
 
     // Directory entries
     private int fsize[];        // each element stores a different file size.
     private char fnames[][];    // each element stores a different file name.
+    private short parent[];     // each element stores the directory holding the entry.
+    private boolean isDir[];    // each element stores whether the entry is a directory.
+
+    // In-memory index, rebuilt from the entries above
+    private HashMap<String, Short> children[]; // for each directory, names in it -> inode number
+    private short freeSlots[];  // stack of unused inode numbers
+    private int freeCount;      // # entries in freeSlots
+    private LinkedHashMap<String, Short> dentries; // least recently used cache of path -> inode number
+    private boolean dirty[];    // blocks of the directory file whose entries changed since they were saved
 
     public Directory(int maxInumber) { // directory constructor
         fsize = new int[maxInumber];     // maxInumber = max files
         for (int i = 0; i < maxInumber; i++)
             fsize[i] = 0;                 // all file size initialized to 0
         fnames = new char[maxInumber][maxChars];
+        parent = new short[maxInumber];
+        isDir = new boolean[maxInumber];
         String root = "/";                // entry(inode) 0 is "/"
         fsize[0] = root.length();        // fsize[0] is the size of "/".
         root.getChars(0, fsize[0], fnames[0], 0); // fnames[0] includes "/"
+        isDir[0] = true;                 // "/" is its own parent
+        dirty = new boolean[(FILE_ENTRY * maxInumber + FileSystem.blockSize - 1) / FileSystem.blockSize];
+        for (int i = 0; i < dirty.length; i++)
+            dirty[i] = true;              // nothing is on disk until the directory is saved or loaded
+        buildIndex();
     }
 
     /**
@@ -28,120 +51,285 @@ public class Directory {
      * @param data data to be turned into directory
      * @return 1 if succesfully completed
      */
-    public int bytes2directory(byte data[]) {
+    public synchronized int bytes2directory(byte data[]) {
         // assumes data[] received directory information from disk
         // initializes the Directory instance with this data[]
         int index = 0;
 
-        for(int i = 0; i < fsize.length; i++){
-            fsize[i] = SysLib.bytes2int(data, i); //set the size of file
-            index += 4;
+        for(int i = 0; i < fsize.length && index + FILE_ENTRY <= data.length; i++){
+            fsize[i] = SysLib.bytes2int(data, index); //set the size of file
+            parent[i] = SysLib.bytes2short(data, index + 4); //set the directory holding it
+            isDir[i] = SysLib.bytes2short(data, index + 6) == 1; //set whether it is a directory
+            index += 8;
 
-            String name = new String(data, index, maxChars * 2); //turn byte data into string
+            String name = new String(data, index, maxChars); //turn byte data into string
             name.getChars(0, fsize[i], fnames[i], 0);//turn copy string chars into fname array
-            index += maxChars * 2;//increases index by 60
+            index += FILE_ENTRY - 8;//increases index by 56
 
 
 
         }
+        isDir[0] = true;
+        for(int i = 0; i < dirty.length; i++){
+            dirty[i] = false; //matches what is on disk
+        }
+        buildIndex(); //the index has to match the loaded entries
         return 1;
     }
 
     /**
-     * takes the directory and turns it into data, an array of bytes
-     * @return byte array of data
+     * takes one block of the directory file and turns it into data, if any of its entries changed since it was
+     * last saved. Only this block has to be written back to disk
+     * @param block block number within the directory file
+     * @return byte array of the block's data, null if the block has not changed
      */
-    public byte[] directory2bytes() {
-        // converts and return Directory information into a plain byte array
-        // this byte array will be written back to disk
-        // note: only meaningfull directory information should be converted
-        // into bytes.
-        int index = 0;
-        byte[] out = new byte[FILE_ENTRY * fsize.length];
-
-        for(int i = 0; i < fsize.length; i++){
-            SysLib.int2bytes(fsize[i], out, index);//turn size into byte data
-            index += 4;
+    public synchronized byte[] dirtyBlock2bytes(int block) {
+        if(block < 0 || block >= dirty.length || !dirty[block]){
+            return null;
+        }
+        byte[] out = new byte[FileSystem.blockSize];
+        int first = block * FileSystem.blockSize / FILE_ENTRY; //first entry in the block
 
-            String name = new String(fnames[i], 0, maxChars);//create string from char array
-            byte[] tmp = name.getBytes();//make byte array out of string
-            System.arraycopy(tmp, 0, out, index, tmp.length);//copy byte array into the data array
-            index += 60;
+        for(int i = first; i < fsize.length && i < first + FileSystem.blockSize / FILE_ENTRY; i++){
+            entry2bytes(i, out, (i - first) * FILE_ENTRY);
         }
+        dirty[block] = false;
         return out;
     }
 
+    /**
+     * @return number of bytes the whole directory takes in the directory file
+     */
+    public int size() {
+        return FILE_ENTRY * fsize.length;
+    }
+
+    /**
+     * @return number of blocks the directory file is split into
+     */
+    public int blocks() {
+        return dirty.length;
+    }
+
+    /**
+     * turns one directory entry into data
+     * @param i inode number of the entry
+     * @param out array receiving the data
+     * @param index where the entry starts in out
+     */
+    private void entry2bytes(int i, byte[] out, int index) {
+        SysLib.int2bytes(fsize[i], out, index);//turn size into byte data
+        SysLib.short2bytes(parent[i], out, index + 4);//then the directory holding it
+        SysLib.short2bytes((short)(isDir[i] ? 1 : 0), out, index + 6);//and its type
+        index += 8;
+
+        String name = new String(fnames[i], 0, maxChars);//create string from char array
+        byte[] tmp = name.getBytes();//make byte array out of string
+        System.arraycopy(tmp, 0, out, index, Math.min(tmp.length, maxChars));//copy byte array into the data array
+    }
+
+    /**
+     * marks the block of the directory file holding an entry as changed
+     * @param iNumber inode number of the entry
+     */
+    private void markDirty(int iNumber) {
+        dirty[iNumber * FILE_ENTRY / FileSystem.blockSize] = true;
+    }
+
     /**
      * alocates a new file into the directory
-     * @param filename name of new file to be created
+     * @param filename path of new file to be created
      * @return inode number of new file
      */
     public short ialloc(String filename) {
+        return ialloc(filename, false);
+    }
+
+    /**
+     * alocates a new file or directory into the directory
+     * @param filename path of new entry to be created, its parent directory must exist
+     * @param directory true to create a directory
+     * @return inode number of new entry, -1 if it could not be created
+     */
+    public synchronized short ialloc(String filename, boolean directory) {
         // filename is the one of a file to be created.
         // allocates a new inode number for this filename
-        int inode = 0;
-        boolean found = false;
-
-        for (int i = 1; i < fsize.length; i++) {//search for empty spot
-
-            if (filename.length() == fsize[i]) {//see if index filename matches name of file that is being created
-                char buff[] = new char[fsize[i]];
-                for (int j = 0; j < fsize[i]; j++) {
-                    buff[j] = fnames[i][j];
-                }
-                if(filename.equals(new String(buff))){
-                    found = true;//filename already exists
-                }
-            }
+        String path = normalize(filename);
+        int split = path.lastIndexOf('/');
+        String name = path.substring(split + 1);
+        short dir = resolve(path.substring(0, split));
 
-            if (fsize[i] == 0 && inode == 0) {//find fist open slot
-                inode = i;
-            }
+        if (dir < 0 || !isDir[dir]) {
+            return -1;//parent directory does not exist
+        }
+        if (name.length() == 0 || name.length() > maxChars || children[dir].containsKey(name)) {
+            return -1;//name does not fit, or filename already exists
+        }
+        if (freeCount == 0) {
+            return -1;//no empty spot left
+        }
 
-            if(!found && inode != 0){//only create new file if no file with same name was found
-                fsize[inode] = filename.length();
-                filename.getChars(0, fsize[inode], fnames[inode], 0);
-                return (short)inode;
-            }
+        short inode = freeSlots[--freeCount];//take the lowest open slot
+        fsize[inode] = name.length();
+        name.getChars(0, fsize[inode], fnames[inode], 0);
+        parent[inode] = dir;
+        isDir[inode] = directory;
+        children[dir].put(name, inode);
+        if (directory) {
+            children[inode] = new HashMap<String, Short>();
         }
-        return -1;
+        markDirty(inode);
+        return inode;
     }
 
     /**
      * free's up a directory slot
-     * @param iNumber inode number to free up
+     * @param iNumber inode number to free up, directories must be empty
      * @return true if slot was freed
      */
-    public boolean ifree(short iNumber) {
+    public synchronized boolean ifree(short iNumber) {
         // deallocates this inumber (inode number)
         // the corresponding file will be deleted.
+        if (iNumber <= 0 || iNumber >= fsize.length || fsize[iNumber] == 0) {
+            return false;//root and unused slots cannot be freed
+        }
+        if (isDir[iNumber] && !children[iNumber].isEmpty()) {
+            return false;//directory still has entries
+        }
+        dentries.remove(pathOf(iNumber));//nothing below it can be cached, it has no entries
+        children[parent[iNumber]].remove(new String(fnames[iNumber], 0, fsize[iNumber]));
+        children[iNumber] = null;
         fsize[iNumber] = 0;
+        isDir[iNumber] = false;
+        markDirty(iNumber);
+        freeSlots[freeCount++] = iNumber;//slot can be reused right away
         return true;
     }
 
     /**
      * finds the inode number for a file in directory
-     * @param filename name to search up
+     * @param filename path to search up
      * @return inode number, -1 if file not found
      */
-    public short namei(String filename) {
+    public synchronized short namei(String filename) {
         // returns the inumber corresponding to this filename
+        return resolve(normalize(filename));
+    }
 
-        for (int i = 1; i < fsize.length; i++) {//go through directory
+    /**
+     * checks whether an entry is a directory
+     * @param iNumber inode number of the entry
+     * @return true if the entry is a directory
+     */
+    public synchronized boolean isDirectory(short iNumber) {
+        return iNumber >= 0 && iNumber < fsize.length && fsize[iNumber] > 0 && isDir[iNumber];
+    }
 
-            if (filename.length() == fsize[i]) {//if lengths match
-                char buff[] = new char[fsize[i]];
+    /**
+     * lists the entries of a directory
+     * @param iNumber inode number of the directory
+     * @return the names in the directory, with a "/" after the names of directories, or null if it is not
+     * a directory
+     */
+    public synchronized ArrayList<String> readdir(short iNumber) {
+        if (!isDirectory(iNumber)) {
+            return null;
+        }
+        ArrayList<String> names = new ArrayList<String>();
+        for (Map.Entry<String, Short> entry : children[iNumber].entrySet()) {
+            names.add(isDir[entry.getValue()] ? entry.getKey() + "/" : entry.getKey());
+        }
+        return names;
+    }
 
-                for (int j = 0; j < fsize[i]; j++) {//create buffer char array
-                    buff[j] = fnames[i][j];
-                }
+    /**
+     * walks a normalized path one name at a time from "/". Every resolved prefix is put in the dentry cache,
+     * so later lookups under the same directories start from the longest cached prefix instead of "/"
+     * @param path normalized path, "" is "/"
+     * @return inode number, -1 if the path does not exist
+     */
+    private short resolve(String path) {
+        if (path.length() == 0) {
+            return 0;//root
+        }
+        Short cached = dentries.get(path);
+        if (cached != null) {
+            return cached;
+        }
 
-                if(filename.equals(new String(buff))){//turn buffer array into string and compare
-                    return (short)i;//return inode num
-                }
+        int split = path.lastIndexOf('/');
+        short dir = resolve(path.substring(0, split));//resolve (and cache) the parent first
+        if (dir < 0 || !isDir[dir]) {
+            return -1;
+        }
+        Short iNumber = children[dir].get(path.substring(split + 1));
+        if (iNumber == null) {
+            return -1;//missing entries are not cached
+        }
+        dentries.put(path, iNumber);
+        return iNumber;
+    }
+
+    /**
+     * builds the normalized path of an entry from its parent links
+     * @param iNumber inode number of the entry
+     * @return normalized path of the entry
+     */
+    private String pathOf(short iNumber) {
+        StringBuilder path = new StringBuilder();
+        while (iNumber != 0) {
+            path.insert(0, fnames[iNumber], 0, fsize[iNumber]).insert(0, '/');
+            iNumber = parent[iNumber];
+        }
+        return path.toString();
+    }
+
+    /**
+     * turns a path into the form used as a key, "/a/b": leading "/" added, repeated and trailing "/" removed.
+     * Names without a "/" are in the root directory
+     * @param filename path to normalize
+     * @return normalized path, "" for the root
+     */
+    private static String normalize(String filename) {
+        StringBuilder path = new StringBuilder();
+        for (String name : filename.split("/")) {
+            if (name.length() > 0) {
+                path.append('/').append(name);
+            }
+        }
+        return path.toString();
+    }
+
+    /**
+     * rebuilds the name index, the free slot stack and the dentry cache from the directory entries
+     */
+    private void buildIndex() {
+        @SuppressWarnings({"unchecked", "rawtypes"}) // an array of a generic type can only be created raw
+        HashMap<String, Short> index[] = new HashMap[fsize.length];
+        children = index;
+        freeSlots = new short[fsize.length];
+        freeCount = 0;
+        dentries = new LinkedHashMap<String, Short>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, Short> eldest) {
+                return size() > maxDentries;
             }
+        };
 
+        for (int i = 0; i < fsize.length; i++) {
+            if (fsize[i] > 0 && isDir[i]) {
+                children[i] = new HashMap<String, Short>();
+            }
+        }
+        for (int i = fsize.length - 1; i >= 1; i--) {//pushed from the top so the lowest slot is used first
+            if (fsize[i] > 0) {
+                if (parent[i] < 0 || parent[i] >= fsize.length || children[parent[i]] == null) {
+                    parent[i] = 0;//holder is gone, keep the entry reachable from "/"
+                    markDirty(i);
+                }
+                children[parent[i]].put(new String(fnames[i], 0, fsize[i]), (short)i);
+            } else {
+                freeSlots[freeCount++] = (short)i;
+            }
         }
-        return -1;//if file not found
     }
 }
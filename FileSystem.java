@@ -2,35 +2,67 @@
  * Andrew Montgomery, Daniel Yakovlev
  * This class represents the file system.
  */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class FileSystem {
     private final int SEEK_SET = 0;
     private final int SEEK_CUR = 1;
     private final int SEEK_END = 2;
+    private final int MAX_VECTOR = 32;      // Most blocks moved by one SysLib.creadv or SysLib.cwritev call
+    private final int MIN_READ_AHEAD = 4;   // Blocks read ahead once a file is being read sequentially
+    private final int MAX_READ_AHEAD;       // Most blocks read ahead, a quarter of the block cache and at most
+                                            // what one vectored request maps
 
     public final static int OK = 0;
     public final static int ERROR = -1;
 
+    public static int blockSize = Disk.blockSize;   // Size of a file system block in bytes, set from the superblock
+                                                    // at boot or by format. Disk.blockSize is only the size of the
+                                                    // ThreadOS Disk's blocks, and a file system block is one or
+                                                    // more of them
+
     private SuperBlock superblock;
     private Directory directory;
     private FileTable fileTable;
+    private InodeTable inodes;
+    private Journal journal;
+    private GroupCommit commits = new GroupCommit();    // Runs one commit for the syncs of concurrent callers
+    private ReentrantReadWriteLock changes = new ReentrantReadWriteLock();  // Shared by the threads that change
+                                                    // the blocks of a file, before they take its inode's lock.
+                                                    // A commit holds it exclusively, so the bitmap and the
+                                                    // inodes it saves are from the same moment
 
     /*
      * Constructor for the FileSystem. Receives the number of diskBlocks and creates the file system to be used.
      * Initializes the superblock, the directory, and the file table that will be used by the system for managing
      * files
      * @Param diskBlocks: The number of disk blocks that the file system supports
+     * @Param cacheBlocks: The number of blocks the block cache holds, which bounds how far files are read ahead
      */
-    public FileSystem(int diskBlocks)
+    public FileSystem(int diskBlocks, int cacheBlocks)
     {
+        MAX_READ_AHEAD = Math.max(MIN_READ_AHEAD, Math.min(MAX_VECTOR, cacheBlocks / 4));
+
         //create superblock, and format disk with 64 inodes in default
         superblock = new SuperBlock(diskBlocks);
 
+        //replay the metadata that was committed to the journal but might not have reached its place on the disk,
+        //and read the superblock again if anything was replayed
+        journal = new Journal(superblock.journalStart, superblock.journalBlocks);
+        if(journal.replay())
+        {
+            superblock = new SuperBlock(diskBlocks);
+        }
+
         //create directory, and register "/" in directory entry 0
         directory = new Directory(superblock.inodeBlocks);
 
-        //file table is created, and store directory in the file table
-        fileTable = new FileTable(directory);
+        //file table is created, and store directory and the shared inodes in the file table
+        inodes = new InodeTable();
+        fileTable = new FileTable(directory, inodes);
 
         //directory reconstruction
         FileTableEntry dirEnt = open("/", "r");
@@ -44,6 +76,41 @@ public class FileSystem {
         close(dirEnt);
     }
 
+    /*
+     * Method that changes the size of the file system's blocks. Only the kernel calls it, while the cache and the
+     * disk are switched to the same size
+     * @Param size: The block size in bytes
+     */
+    public static void setBlockSize(int size)
+    {
+        blockSize = size;
+        Inode.setBlockSize(size);
+    }
+
+    /*
+     * Method used to format the disk with another block size. The cache and the disk switch to the new size once
+     * every file is closed, then the disk is formatted
+     * @Param files: Number of files that will be formatted
+     * @Param size: The block size in bytes, a power of 2 from Disk.blockSize to 64 KB
+     * @Return boolean: Whether the format was finished successfully or not
+     */
+    public boolean format(int files, int size)
+    {
+        if(size != blockSize)
+        {
+            while(this.fileTable.fempty() == false) {
+            }
+
+            int blocks = SysLib.cblocksize(size);
+            if(blocks < 0)
+            {
+                return false;
+            }
+            superblock.totalBlocks = blocks;
+        }
+        return format(files);
+    }
+
     /*
      * Method used to format the disk. Erases all data and creates a new directory and fileTable
      * @Param files: Number of files that will be formatted
@@ -55,12 +122,84 @@ public class FileSystem {
         }
 
             superblock.format(files);
+            journal = new Journal(superblock.journalStart, superblock.journalBlocks);
             // Create a new instance of Directory and FileTable
             directory = new Directory(superblock.inodeBlocks);
-            fileTable = new FileTable(directory);
+            inodes = new InodeTable();
+            fileTable = new FileTable(directory, inodes);
             return true;
     }
 
+    /*
+     * Method that commits the file system's in-memory metadata (the bitmap, the dirty inodes and the directory)
+     * to the journal. Threads that sync at the same time, such as many small writers closing their files, share
+     * one commit: a caller returns once a commit that started after its call is done
+     */
+    public void sync()
+    {
+        commits.commit(this::commit);
+    }
+
+    /*
+     * Method that commits the metadata as one transaction. The bitmap is added first and the directory last, so
+     * that if a very large transaction has to be split, no committed block points to a block that is not
+     * committed yet
+     */
+    private void commit()
+    {
+        journal.lock.lock();
+        try {
+            // No block is allocated or freed while the metadata is added, so no inode in the transaction points
+            // to a block its bitmap has free. The "/" file grows to hold the whole directory before the bitmap
+            // and the inodes are added, so its new blocks are part of the same transaction
+            Inode root = inodes.iget((short) 0);
+            Lock exclusive = changes.writeLock();
+            Lock lock = root.lock.writeLock();
+            exclusive.lock();
+            lock.lock();
+            try {
+                if(root.length < directory.size() && allocateBlocks(root, 0, directory.size()))
+                {
+                    root.length = directory.size();
+                    root.dirty = true;
+                }
+
+                superblock.sync(journal);
+                inodes.sync(journal);
+                syncDirectory(root);
+            } finally {
+                lock.unlock();
+                exclusive.unlock();
+            }
+            inodes.iput((short) 0, root);
+            journal.commit();
+        } finally {
+            journal.lock.unlock();
+        }
+    }
+
+    /*
+     * Method that saves the directory into the "/" file. Only the blocks holding entries that changed since the
+     * last sync are added to the transaction, so creating or deleting a file costs one block
+     * @Param root: The inode of the "/" file
+     */
+    private void syncDirectory(Inode root)
+    {
+        for(int i = 0; i < directory.blocks(); i++)
+        {
+            int block = root.findTargetBlock(i * blockSize);
+            if(block == -1)                 // The "/" file could not grow, the rest is saved once it can
+            {
+                break;
+            }
+            byte[] dirData = directory.dirtyBlock2bytes(i);
+            if(dirData != null)
+            {
+                System.arraycopy(dirData, 0, journal.getBlock(block), 0, blockSize);
+            }
+        }
+    }
+
     /*
      * Method used to open a file.
      * @Param filename: The name of the file
@@ -73,11 +212,29 @@ public class FileSystem {
         //Create and allocate new file table entry using filename and mode
         //from function parameters
         FileTableEntry ftEnt = fileTable.falloc(filename, mode);
+        if(ftEnt == null)                   // The file does not exist, or its directory does not
+        {
+            return null;
+        }
 
         if(mode.equals("w"))
         {
-            if(deallocAllBlocks(ftEnt) == false)
+            boolean truncated;
+            Lock shared = changes.readLock();
+            Lock lock = ftEnt.inode.lock.writeLock();
+            shared.lock();
+            lock.lock();
+            try {
+                truncated = deallocAllBlocks(ftEnt);
+            } finally {
+                lock.unlock();
+                shared.unlock();
+            }
+            if(truncated == false)
+            {
+                fileTable.ffree(ftEnt);     // Release the entry so the inode does not stay pinned
                 return null;
+            }
         }
         return ftEnt;
     }
@@ -95,13 +252,17 @@ public class FileSystem {
             return false;
         }
 
-        synchronized (ftEnt)                // Decrement count by 1, to indicate the file is not in used
-        {
-            ftEnt.count--;
+        int count;
+        ftEnt.lock.lock();                  // Decrement count by 1, to indicate the file is not in used
+        try {
+            count = --ftEnt.count;
+        } finally {
+            ftEnt.lock.unlock();
         }
-        if(ftEnt.count == 0)                // Check to make sure that file is not being used elsewhere
+        if(count == 0)                      // Check to make sure that file is not being used elsewhere
         {
             fileTable.ffree(ftEnt);
+            sync();                         // Commit the file's metadata, after its data is written to the disk
             return true;
         }
         return false;
@@ -126,153 +287,379 @@ public class FileSystem {
     }
 
     /*
-     * Method that reads a file from memory.  The file must be in "read" or "read/write" mode.
+     * Method that keeps a file's inode in the inode table even once every entry of the file is closed, for I/O
+     * that is still pending on it. Every pin is released with unpin
+     * @Param ftEnt: An open entry in the FileTable for the file
+     */
+    public void pin(FileTableEntry ftEnt)
+    {
+        inodes.iget(ftEnt.iNumber);
+    }
+
+    /*
+     * Method that releases a pin taken with pin
+     * @Param ftEnt: The entry given to pin
+     */
+    public void unpin(FileTableEntry ftEnt)
+    {
+        inodes.iput(ftEnt.iNumber, ftEnt.inode);
+    }
+
+    /*
+     * Method that reads a file from memory.  The file must be in "read" or "read/write" mode. The entry's lock is
+     * only held while the range is taken from the seek pointer, so several threads reading through the same entry
+     * read their ranges at the same time, under the inode's read lock. If the file is being read sequentially,
+     * the blocks after the ones being read are prefetched first
      * @Param ftEnt: The entry in the FileTable for the file
      * @Param buffer: The data of the file being read
-     * @Return int: The total size that was read from the file
+     * @Return int: The total size that was read from the file, or -1 on error
      */
     public int read(FileTableEntry ftEnt, byte[] buffer)
     {
-        int dataRead = 0;
-        int totalSize = buffer.length;
-        int dataSize = 0;
+        if (!ftEnt.mode.equals("r") && !ftEnt.mode.equals("w+")) {          // Check the mode
+            return -1;
+        }
 
-        synchronized (ftEnt) {                                              // Synchronized to prevent race conditions
+        int[] blocks = BlockBuffers.blockIds(MAX_VECTOR);                   // Reused by every read on this thread
+        Lock lock = ftEnt.inode.lock.readLock();                            // The length can not change while
+        lock.lock();                                                        // it is held
+        try {
+            int offset, totalSize;
+            ftEnt.lock.lock();
+            try {
+                // Read until the buffer is full or the end of the file is reached
+                offset = ftEnt.seekPtr;
+                totalSize = Math.max(0, Math.min(buffer.length, fsize(ftEnt) - offset));
+                readAhead(ftEnt, totalSize, blocks);
+                ftEnt.seekPtr += totalSize;
+            } finally {
+                ftEnt.lock.unlock();
+            }
+            int bytes = readBlocks(ftEnt.inode, offset, buffer, totalSize, blocks);
+            if(bytes < totalSize)                                           // The seek pointer only passes what
+            {                                                               // was read, unless it moved since
+                ftEnt.lock.lock();
+                try {
+                    if(ftEnt.seekPtr == offset + totalSize)
+                    {
+                        ftEnt.seekPtr = offset + Math.max(bytes, 0);
+                        ftEnt.readEnd = ftEnt.seekPtr;
+                    }
+                } finally {
+                    ftEnt.lock.unlock();
+                }
+            }
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
 
-            if (ftEnt.mode.equals("r") || ftEnt.mode.equals("w+")) {        // Check the mode
+    /*
+     * Method that reads a byte range of a file into the buffer. The blocks are read with one SysLib.creadv call
+     * for every MAX_VECTOR blocks, instead of one call per block. The caller holds the inode's read lock
+     * @Param inode: The inode of the file
+     * @Param offset: Where the range starts in the file
+     * @Param buffer: Receives the data, from its start
+     * @Param totalSize: The length of the range, it must be within the file
+     * @Param blocks: Scratch array for the disk blocks, at least MAX_VECTOR long
+     * @Return int: The number of bytes read, less than totalSize only if a block is missing or the cache could
+     * not read a block, or -1 if the cache failed before anything was read
+     */
+    private int readBlocks(Inode inode, int offset, byte[] buffer, int totalSize, int[] blocks)
+    {
+        if(totalSize <= 0 || offset >= inode.length)                        // Nothing to read
+        {
+            return 0;
+        }
+        if(inode.isInline())                                                // The data came with the inode
+        {
+            return inode.readInline(offset, buffer, totalSize);
+        }
 
-                while (totalSize > 0 && ftEnt.seekPtr < fsize(ftEnt)) {     // Loop to read data
-                    int block = ftEnt.inode.findTargetBlock(ftEnt.seekPtr); // Finds the block where the file is located
+        int dataRead = 0;
+        while (dataRead < totalSize) {                                      // Loop to read data
+            // Finds the blocks holding the rest of the data
+            int count = mapBlocks(inode, offset + dataRead, totalSize - dataRead, blocks);
 
-                    if(block == -1) { break;}                               // Returns -1 if no data is in the block
+            if(count == 0) { break;}                                        // No data is in the block
 
-                    byte blockData[] = new byte[512];
-                    SysLib.rawread(block, blockData);                       // Read from disk
+            byte blockData[] = BlockBuffers.blocks(count);
+            if(SysLib.creadv(blocks, count, blockData) == ERROR)            // Read all of them at once
+            {
+                return (dataRead > 0) ? dataRead : ERROR;                   // Keep what was read before it failed
+            }
 
-                    int blockOffset = ftEnt.seekPtr % 512;
+            // The data starts part way into the first block, and may end part way into the last one
+            int blockOffset = (offset + dataRead) % blockSize;
+            int dataSize = Math.min(count * blockSize - blockOffset, totalSize - dataRead);
 
-                    // Conditional statements used to ensure that all of the data gets read
-                    // Ensures that data is being read until the end of the block, and if the data goes
-                    // past the end of the block, then we go through the loop again to find the next block
-                    if(512 - blockOffset < fsize(ftEnt) - ftEnt.seekPtr){
-                        dataSize = 512 - dataSize;
-                    }
-                    else{
-                        dataSize = fsize(ftEnt) - ftEnt.seekPtr;
-                    }
-                    if(dataSize > totalSize){
-                        dataSize = totalSize;
-                    }
+            // Copy the data from the disk to the buffer
+            System.arraycopy(blockData, blockOffset, buffer, dataRead, dataSize);
+            dataRead += dataSize;
+        }
+        return dataRead;
+    }
 
-                    // Copy the data from the disk to the buffer
-                    System.arraycopy(blockData, blockOffset, buffer, dataRead, dataSize);
-                    ftEnt.seekPtr += dataSize;
-                    totalSize -= dataSize;
-                    dataRead += dataSize;
+    /*
+     * Method that detects sequential reading and hands the blocks that follow a read to the prefetcher, so they
+     * are loaded into the cache while the reader copies the blocks it asked for. The window starts at
+     * MIN_READ_AHEAD blocks and doubles with every sequential read up to MAX_READ_AHEAD. A read that does not
+     * start where the last one stopped turns read-ahead off until the reads are sequential again
+     * @Param ftEnt: The entry in the FileTable for the file, the caller holds its lock
+     * @Param length: The number of bytes about to be read from the seek pointer
+     * @Param blocks: Scratch array for the disk blocks, at least MAX_READ_AHEAD long
+     */
+    private void readAhead(FileTableEntry ftEnt, int length, int[] blocks)
+    {
+        if(ftEnt.seekPtr == ftEnt.readEnd)
+        {
+            ftEnt.readAhead = (ftEnt.readAhead == 0) ? MIN_READ_AHEAD : Math.min(ftEnt.readAhead * 2, MAX_READ_AHEAD);
+        } else {                                                    // Random access
+            ftEnt.readAhead = 0;
+            ftEnt.prefetched = 0;
+        }
+        ftEnt.readEnd = ftEnt.seekPtr + Math.max(length, 0);
+        if(ftEnt.readAhead == 0)
+        {
+            return;
+        }
 
+        // The window starts at the block after the last one of this read, and ends at the end of the file.
+        // Blocks that an earlier read already handed to the prefetcher are not handed over again
+        int next = (ftEnt.readEnd + blockSize - 1) / blockSize;
+        int first = Math.max(next, ftEnt.prefetched);
+        int end = Math.min(next + ftEnt.readAhead, (fsize(ftEnt) + blockSize - 1) / blockSize);
+        if(first >= end)
+        {
+            return;
+        }
+        int count = mapBlocks(ftEnt.inode, first * blockSize, (end - first) * blockSize, blocks);
+        if(count > 0)
+        {
+            SysLib.cprefetch(blocks, count);
+        }
+        ftEnt.prefetched = end;
+    }
+
+    /*
+     * Method used to write data from the memory to the disk. Writers of a file exclude each other and its readers
+     * with the inode's write lock, whichever entry they use
+     * @Param ftEnt: The entry in the FileTable for the file
+     * @Param buffer: The data being written
+     * @Return int: The size of the data that was written
+     */
+    public int write(FileTableEntry ftEnt, byte[] buffer)
+    {
+        // Checks that the parameters are valid, and the ftEnt is not is "read" mode
+        if(ftEnt == null || buffer == null || ftEnt.mode.equals("r"))
+        {
+            return -1;
+        }
 
+        Lock shared = changes.readLock();                       // Taken before the inode's lock, like every
+        Lock lock = ftEnt.inode.lock.writeLock();               // change to a file's blocks
+        shared.lock();
+        lock.lock();
+        try {
+            ftEnt.lock.lock();                                  // The seek pointer moves by what was written
+            try {
+                int bytes = writeBlocks(ftEnt.inode, ftEnt.seekPtr, buffer);
+                if(bytes > 0)
+                {
+                    ftEnt.seekPtr += bytes;
                 }
-                return dataRead;
+                return bytes;
+            } finally {
+                ftEnt.lock.unlock();
             }
+        } finally {
+            lock.unlock();
+            shared.unlock();
+        }
+    }
 
+    /*
+     * Method that reads a file at an offset without using or moving the seek pointer, so threads sharing an entry
+     * do not race on it. Positional reads of a file run at the same time, under the inode's read lock. The file
+     * must be in "read" or "read/write" mode
+     * @Param ftEnt: The entry in the FileTable for the file
+     * @Param buffer: Receives the data
+     * @Param offset: Where the read starts in the file
+     * @Return int: The number of bytes read, 0 at or past the end of the file, or -1 on error
+     */
+    public int pread(FileTableEntry ftEnt, byte[] buffer, int offset)
+    {
+        if(ftEnt == null || buffer == null || offset < 0 || (!ftEnt.mode.equals("r") && !ftEnt.mode.equals("w+")))
+        {
             return -1;
         }
+
+        Lock lock = ftEnt.inode.lock.readLock();
+        lock.lock();
+        try {
+            int totalSize = Math.max(0, Math.min(buffer.length, ftEnt.inode.length - offset));
+            return readBlocks(ftEnt.inode, offset, buffer, totalSize, BlockBuffers.blockIds(MAX_VECTOR));
+        } finally {
+            lock.unlock();
+        }
     }
 
     /*
-     * Method used to write data from the memory to the disk.
+     * Method that writes a file at an offset without using or moving the seek pointer. The offset can be at
+     * most the size of the file, files have no holes
      * @Param ftEnt: The entry in the FileTable for the file
      * @Param buffer: The data being written
-     * @Return int: The size of the data that was written
+     * @Param offset: Where the write starts in the file
+     * @Return int: The number of bytes written, or -1 on error
      */
-    public int write(FileTableEntry ftEnt, byte[] buffer)
+    public int pwrite(FileTableEntry ftEnt, byte[] buffer, int offset)
     {
-        // Checks that the parameters are valid, and the ftEnt is not is "read" mode
-        if(ftEnt == null || buffer == null || ftEnt.mode.equals("r"))
+        if(ftEnt == null || buffer == null || offset < 0 || ftEnt.mode.equals("r"))
         {
             return -1;
         }
 
-        int bytes, length, totalWriteSpace, offset, writeLength, nodeWriteSpace;
+        Lock shared = changes.readLock();
+        Lock lock = ftEnt.inode.lock.writeLock();
+        shared.lock();
+        lock.lock();
+        try {
+            if(offset > ftEnt.inode.length)
+            {
+                return -1;
+            }
+            return writeBlocks(ftEnt.inode, offset, buffer);
+        } finally {
+            lock.unlock();
+            shared.unlock();
+        }
+    }
+
+    /*
+     * Method that writes the buffer into a file at an offset, growing the file if the data goes past its end.
+     * The blocks are written with one SysLib.cwritev call for every MAX_VECTOR blocks. A block is only read
+     * first if it is partly overwritten and keeps some of the file's old data, so whole blocks and blocks past
+     * the end of the file are not read. A small file is kept in its inode until a write takes it past
+     * Inode.inlineSize, then its data is moved to a block first. The caller holds the inode's write lock
+     * @Param inode: The inode of the file
+     * @Param start: Where the data goes in the file, at most the length of the file
+     * @Param buffer: The data being written
+     * @Return int: The number of bytes written, or -1 if no block could be reserved for the data
+     */
+    private int writeBlocks(Inode inode, int start, byte[] buffer)
+    {
+        int bytes, length, offset, writeLength, count;
         byte[] data;
-        int nodeLoc;
+        int[] blocks;
+
+        bytes = 0;                                              // Number of bytes written
+        length = buffer.length;                                 // Length of the data to be written
 
-        synchronized (ftEnt)                                    // Synchronized to prevent race conditions
+        if(inode.writeInline(start, buffer))                    // Still fits in the inode
         {
-            bytes = 0;                                          // Number of bytes written
-            length = buffer.length;                             // Length of the data to be written
+            return length;
+        }
+        if(inode.isInline() && !moveInline(inode))
+        {
+            return -1;
+        }
 
-            //Loop that iterates until all the data has been written
-            while(bytes < length)
+        // Reserve every block the write needs up front, with one allocation for the whole buffer. If the
+        // disk or the inode runs out of space, as much of the buffer as fits is written
+        allocateBlocks(inode, start, length);
+        blocks = BlockBuffers.blockIds(MAX_VECTOR);             // Taken after allocateBlocks, which uses it too
+
+        //Loop that iterates until all the data has been written
+        while(bytes < length)
+        {
+            int position = start + bytes;
+            count = mapBlocks(inode, position, length - bytes, blocks);     //Finds the target blocks
+
+            // Return an error (-1) if no block could be reserved for the data
+            if(count == 0)
             {
-                nodeLoc = ftEnt.inode.findTargetBlock(ftEnt.seekPtr);       //Finds the targetBlock to be written to
+                return (bytes > 0) ? bytes : -1;
+            }
 
-                // If the location does not exist, then we must find a new block to write to
-                if(nodeLoc == -1)
-                {
-                    // Get a new free block
-                    short freeBlock = (short)this.superblock.getFreeBlock();
-                    // Set the block to be written to to the new free block
-                    int targetBlock = ftEnt.inode.setTargetBlock(ftEnt.seekPtr, freeBlock);
-
-                    // If the targetBlock is pointing to an indirect block that is not in used, then we must try to
-                    // initialize the indirect block
-                    if(targetBlock == -3)
-                    {
-                        short newFreeBlock = (short)this.superblock.getFreeBlock();
-
-                        // Return an error (-1) if the index block cannot be set
-                        if(!ftEnt.inode.setIndexBlock(newFreeBlock))
-                        {
-                            return -1;
-                        }
-
-                        // Return an error (-1) if the target block cannot be set
-                        if(ftEnt.inode.setTargetBlock(ftEnt.seekPtr, freeBlock) != 0)
-                        {
-                            return -1;
-                        }
-                    }
+            data = BlockBuffers.blocks(count);
+            offset = position % blockSize;
+            writeLength = Math.min(count * blockSize - offset, length - bytes);
+
+            // Only the first and the last block can be partly written. The first keeps the file's data before
+            // the write, and the last keeps it after the written data unless that is the end of the file.
+            // Those are read first; the blocks in between are overwritten whole
+            int end = offset + writeLength;                     // Where the written data ends in data
+            boolean keepHead = offset > 0;
+            boolean keepTail = end % blockSize != 0 && position + writeLength < inode.length;
+            if(keepHead)
+            {
+                SysLib.cread(blocks[0], data);
+            }
+            if(keepTail && (count > 1 || !keepHead))
+            {
+                byte[] tail = BlockBuffers.block();
+                SysLib.cread(blocks[count - 1], tail);
+                System.arraycopy(tail, 0, data, (count - 1) * blockSize, blockSize);
+            } else if(!keepTail)
+            {
+                Arrays.fill(data, end, count * blockSize, (byte) 0);  // Past the end of the file
+            }
+            System.arraycopy(buffer, bytes, data, offset, writeLength);
+            SysLib.cwritev(blocks, count, data);
+            bytes += writeLength;
 
-                    // Returns an error(-1) if the target block is already in use
-                    if(targetBlock == -2 || targetBlock == -1)
-                    {
-                        return -1;
-                    }
+            //Grow the file
+            if(position + writeLength > inode.length)
+            {
+                inode.length = position + writeLength;
+                inode.dirty = true;
+            }
+        }
+        // The inode is committed once the file is closed
+        return bytes;
+    }
 
-                    // FreeBlock is available, so set the location to the free block
-                    nodeLoc = freeBlock;
-                }
+    /*
+     * Method that moves the data of an inline file to its first block. The block is reserved before the data
+     * leaves the inode, so the data stays inline if the disk is full. The caller holds the inode's write lock
+     * @Param inode: The inode of the file
+     * @Return boolean: Returns true if the data was moved, false if no block could be reserved
+     */
+    private boolean moveInline(Inode inode)
+    {
+        if(!allocateBlocks(inode, 0, Math.max(inode.length, 1)))
+        {
+            return false;
+        }
+        byte[] inline = inode.takeInline();
+        return writeBlocks(inode, 0, inline) == inline.length;
+    }
 
-                // Write the data to the block location until all the bytes have been written, or there is no more
-                // space on the block. If the block is filled, then we iterate through the loop again to find a new
-                // block to write to
-                data = new byte[Disk.blockSize];
-                SysLib.rawread(nodeLoc, data);
-                offset = ftEnt.seekPtr % Disk.blockSize;
-                nodeWriteSpace = Disk.blockSize - offset;
-                totalWriteSpace = length - bytes;
-                if(nodeWriteSpace > totalWriteSpace)
-                {
-                    writeLength = totalWriteSpace;
-                } else {
-                    writeLength = nodeWriteSpace;
-                }
-                SysLib.rawread(nodeLoc, data);
-                System.arraycopy(buffer, bytes, data, offset, writeLength);
-                SysLib.rawwrite(nodeLoc, data);
-                bytes += writeLength;
-                ftEnt.seekPtr += writeLength;
-
-                //Reset the ftEnt seek pointer
-                if(ftEnt.seekPtr > ftEnt.inode.length)
-                {
-                    ftEnt.inode.length = ftEnt.seekPtr;
-                }
+    /*
+     * Method that finds the disk blocks holding a byte range of a file, stopping at the first block that is not
+     * allocated
+     * @Param inode: The inode of the file
+     * @Param offset: The start of the range in bytes
+     * @Param length: The length of the range in bytes
+     * @Param blocks: Receives the disk blocks, in file order. At most MAX_VECTOR are found
+     * @Return int: The number of blocks found
+     */
+    private int mapBlocks(Inode inode, int offset, int length, int[] blocks)
+    {
+        int first = offset / blockSize;
+        int last = (offset + length - 1) / blockSize;
+        int count = 0;
+        while(length > 0 && count < MAX_VECTOR && first + count <= last)
+        {
+            int block = inode.findTargetBlock((first + count) * blockSize);
+            if(block == -1)
+            {
+                break;
             }
-            ftEnt.inode.toDisk(ftEnt.iNumber);
-            return bytes;
+            blocks[count++] = block;
         }
+        return count;
     }
 
     /*
@@ -283,7 +670,87 @@ public class FileSystem {
     public boolean delete(String filename)
     {
         FileTableEntry ftEnt = open(filename, "w");
-        return close(ftEnt) && directory.ifree(ftEnt.iNumber);
+        if(close(ftEnt) && directory.ifree(ftEnt.iNumber))
+        {
+            resetInode(ftEnt.iNumber, (short) 0);    // The slot starts over like a removed directory's
+            sync();                         // Commit the removed directory entry
+            return true;
+        }
+        return false;
+    }
+
+    /*
+     * Method that creates a directory. The directory holding it must already exist
+     * @Param path: The path of the new directory
+     * @Return boolean: Returns true if the directory was created, otherwise false
+     */
+    public boolean mkdir(String path)
+    {
+        short iNumber = directory.ialloc(path, true);
+        if(iNumber < 0)
+        {
+            return false;
+        }
+
+        // A directory's entries live in the directory table, so its inode holds no data
+        resetInode(iNumber, (short) 1);
+        sync();
+        return true;
+    }
+
+    /*
+     * Method that removes an empty directory
+     * @Param path: The path of the directory
+     * @Return boolean: Returns true if the directory was removed, otherwise false
+     */
+    public boolean rmdir(String path)
+    {
+        short iNumber = directory.namei(path);
+        if(iNumber <= 0 || !directory.isDirectory(iNumber) || !directory.ifree(iNumber))
+        {
+            return false;
+        }
+
+        resetInode(iNumber, (short) 0);
+        sync();
+        return true;
+    }
+
+    /*
+     * Method that empties an inode that holds no blocks and sets its flag, for a directory being created or a
+     * file or directory being removed. The inode changes under the same locks as a file's blocks, so a commit
+     * running at the same time saves it either before or after the change
+     * @Param iNumber: The inode number
+     * @Param flag: The new flag, 1 for used or 0 for unused
+     */
+    private void resetInode(short iNumber, short flag)
+    {
+        Inode inode = inodes.iget(iNumber);
+        Lock shared = changes.readLock();
+        Lock lock = inode.lock.writeLock();
+        shared.lock();
+        lock.lock();
+        try {
+            inode.flag = flag;
+            inode.length = 0;
+            inode.dirty = true;
+        } finally {
+            lock.unlock();
+            shared.unlock();
+        }
+        inodes.iput(iNumber, inode);
+    }
+
+    /*
+     * Method that lists the entries of a directory
+     * @Param path: The path of the directory
+     * @Return ArrayList<String>: The names in the directory, directories end with "/". Returns null if the path
+     * is not a directory
+     */
+    public ArrayList<String> readdir(String path)
+    {
+        short iNumber = directory.namei(path);
+        return (iNumber < 0) ? null : directory.readdir(iNumber);
     }
 
     /*
@@ -295,8 +762,8 @@ public class FileSystem {
      */
     public int seek(FileTableEntry ftEnt, int offset, int whence)
     {
-        synchronized (ftEnt)
-        {
+        ftEnt.lock.lock();
+        try {
             if(whence == SEEK_SET)
             {
                 // If offset is negative, set seek pointer to start of the file
@@ -344,10 +811,114 @@ public class FileSystem {
                     ftEnt.seekPtr = this.fsize(ftEnt) + offset;
                 }
             }
+        } finally {
+            ftEnt.lock.unlock();
         }
         return ftEnt.seekPtr;
     }
 
+    /*
+     * Method that preallocates the blocks of a file without changing its size, so that later writes up to
+     * the given length find their blocks already reserved
+     * @Param ftEnt: The entry in the FileTable for the file
+     * @Param length: The number of bytes from the start of the file that should have blocks
+     * @Return int: Returns 0 if all of the blocks were reserved, otherwise -1
+     */
+    public int fallocate(FileTableEntry ftEnt, int length)
+    {
+        if(ftEnt == null || ftEnt.mode.equals("r") || length < 0)
+        {
+            return -1;
+        }
+
+        Lock shared = changes.readLock();
+        Lock lock = ftEnt.inode.lock.writeLock();
+        shared.lock();
+        lock.lock();
+        try {
+            if(ftEnt.inode.isInline())      // An inline file only needs blocks once it is too big for its inode
+            {
+                if(length <= Inode.inlineSize)
+                {
+                    return 0;
+                }
+                if(!moveInline(ftEnt.inode))
+                {
+                    return -1;
+                }
+            }
+            return allocateBlocks(ftEnt.inode, 0, length) ? 0 : -1;
+        } finally {
+            lock.unlock();
+            shared.unlock();
+        }
+    }
+
+    /*
+     * Method that makes sure every block in a byte range of a file is allocated. The missing blocks are
+     * reserved with a single allocator call, starting right after the file's last block, so that the file
+     * is laid out contiguously on the disk. The pointer blocks the range needs (the indirect block, the double
+     * indirect block and the indirect blocks under it) are taken from the same run, each one right before the
+     * first block it points to.
+     * @Param inode: The inode of the file
+     * @Param offset: The start of the range in bytes
+     * @Param length: The length of the range in bytes
+     * @Return boolean: Returns true if every block of the range is allocated, false if the disk or the inode
+     * ran out of space
+     */
+    private boolean allocateBlocks(Inode inode, int offset, int length)
+    {
+        if(length <= 0)
+        {
+            return true;
+        }
+
+        int maxBlocks = Inode.maxBlocks;                            // Blocks an inode can point to
+        int last = (offset + length - 1) / blockSize;          // Last block of the range
+        int first = offset / blockSize;                        // First block of the range that is missing
+        while(first <= last && first < maxBlocks && inode.findTargetBlock(first * blockSize) != -1)
+        {
+            first++;
+        }
+        if(first > last)                                            // Everything is already allocated
+        {
+            return true;
+        }
+
+        int end = Math.min(last, maxBlocks - 1);
+        int needed = end - first + 1 + inode.indexBlocksNeeded(first, end);     // The pointer blocks too
+
+        // Ask for the whole run at once, next to the block before the range if there is one
+        int hint = (first > 0) ? inode.findTargetBlock((first - 1) * blockSize) + 1 : -1;
+        int[] blocks = BlockBuffers.blockIds(needed);
+        int allocated = superblock.getFreeBlocks(hint, needed, blocks);
+
+        int used = 0;
+        int block = first;
+        while(block <= end && used < allocated)
+        {
+            if(inode.setIndexBlock(block, blocks[used]))
+            {
+                used++;
+                continue;
+            }
+            if(inode.setTargetBlock(block * blockSize, blocks[used++]) != 0)
+            {
+                used--;
+                break;
+            }
+            block++;
+        }
+
+        // Give back whatever could not be used
+        if(used < allocated)
+        {
+            System.arraycopy(blocks, used, blocks, 0, allocated - used);
+            superblock.returnBlocks(blocks, allocated - used);
+        }
+        return block > last;
+    }
+
     private boolean deallocAllBlocks(FileTableEntry ftEnt) {
 
         // Checks that the parameters are valid
@@ -357,26 +928,33 @@ public class FileSystem {
         if (node == null || node.count > 1)
             return false;
 
-        // Free the direct blocks if there was data in the blocks, and return them to the free block list
-        for (int i = 0; i < 11; i++) {
-            short directNode = ftEnt.inode.direct[i];
-            if (directNode != -1) {
-                superblock.returnBlock(directNode);
+        // Collect the data blocks a batch at a time. Files have no holes, so they end at the first block that
+        // is not set
+        int[] freed = BlockBuffers.blockIds(MAX_VECTOR);
+        int count = 0;
+        for (int i = 0; i < Inode.maxBlocks; i++) {
+            int dataNode = node.findTargetBlock(i * blockSize);
+            if (dataNode < 0) {
+                break;
+            }
+            freed[count++] = dataNode;
+            if (count == freed.length) {
+                superblock.returnBlocks(freed, count);
+                count = 0;
             }
-            ftEnt.inode.direct[i] = -1;
         }
+        superblock.returnBlocks(freed, count);
 
-        // Free the indirect block if it is being used, and return the block to the free block list
-        if (ftEnt.inode.indirect != -1) {
-            superblock.returnBlock(ftEnt.inode.indirect);
-        }
+        // Then the pointer blocks, which the lookups above needed
+        freed = BlockBuffers.blockIds(node.indexBlockCount());
+        count = node.indexBlocks(freed);
+        superblock.returnBlocks(freed, count);
 
-        // Reset the variables of the inode to indicate that the inode is no longer being used and write
-        // the inode to the disk
+        // Reset the variables of the inode to indicate that it holds no data. The count and flag belong to
+        // the open file table entries, so they are left to the file table
+        node.clearBlocks();
         ftEnt.inode.length = 0;
-        ftEnt.inode.count = 0;
-        ftEnt.inode.flag = 0;
-        ftEnt.inode.toDisk(ftEnt.iNumber);
+        ftEnt.inode.dirty = true;
         return true;
     }
 }
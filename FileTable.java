@@ -1,21 +1,25 @@
-import java.util.IdentityHashMap;
-import java.util.Vector;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Andrew Montgomery, Daniel Yakovlev
  * File Table class is a container for a list of currently open files. This object will store opened files
- * on a vector and remove them once they are closed.
+ * in a concurrent set and remove them once they are closed. The table itself takes no lock, so opens and
+ * closes of different files do not wait for each other; the flag of a shared inode is changed under the
+ * inode's monitor.
  */
 
 
 public class FileTable {
 
-    private Vector table;         // the actual entity of this file table
+    private Set<FileTableEntry> table; // the actual entity of this file table
     private Directory dir;        // the root directory
+    private InodeTable inodes;    // the in-memory inodes
 
-    public FileTable( Directory directory ) { // constructor
-        table = new Vector( );     // instantiate a file (structure) table
+    public FileTable( Directory directory, InodeTable inodeTable ) { // constructor
+        table = ConcurrentHashMap.newKeySet( ); // instantiate a file (structure) table
         dir = directory;           // receive a reference to the Director
+        inodes = inodeTable;       // and to the inode table
     }                             // from the file system
 
     // major public methods
@@ -26,51 +30,44 @@ public class FileTable {
      * @param mode mode that the file is opened as
      * @return file table entry that has been created
      */
-    public synchronized FileTableEntry falloc( String filename, String mode ) {
+    public FileTableEntry falloc( String filename, String mode ) {
         // allocate a new file (structure) table entry for this file name
         // allocate/retrieve and register the corresponding inode using dir
 
+        short iNumber = dir.namei(filename); //walk the path to the file
 
+        if(iNumber > 0 && dir.isDirectory(iNumber)) //only "/" can be opened, as the directory file
+            return null;
 
-        short iNumber = filename.equals("/") ? 0 : dir.namei(filename); //search for file
-        Inode inode;
-
-        while(true){
+        if(iNumber < 0){
+            if(mode.equals("r")) //a missing file cannot be read
+                return null;
 
-            if(iNumber > 0){
-                inode = new Inode(iNumber);
+            iNumber = dir.ialloc(filename); //read and write or append creates it, in an existing directory
+            if(iNumber < 0)
+                iNumber = dir.namei(filename); //another thread may have just created it
+            if(iNumber <= 0 || dir.isDirectory(iNumber))
+                return null;
+        }
 
-                if(mode.equals("r")){//read flag
-                    inode.flag = 3; //read
-                    break;
-                }
-                else{//write flag
-                    inode.flag = 4; //write
-                    break;
-                }
+        // retrieve the shared inode, this increments its count
+        Inode inode = inodes.iget(iNumber);
 
+        synchronized(inode){
+            if(inode.flag == 0){//newly created, must be saved as used
+                inode.dirty = true;
             }
-
-            if(!mode.equals("r")){//read and write or append
-                iNumber = dir.ialloc(filename);
-                inode = new Inode(iNumber);
+            if(mode.equals("r")){//read flag
                 inode.flag = 3; //read
-                break;
-
             }
-            if(iNumber < 0 && mode.equals("r"))
-                return null;
-
+            else{//write flag
+                inode.flag = 4; //write
+            }
         }
-        // increment this inode's count
-        inode.count++;
-
-        // immediately write back this inode to the disk
-        inode.toDisk(iNumber);
 
         // return a reference to this file (structure) table entry
         FileTableEntry entry = new FileTableEntry(inode, iNumber, mode);
-        table.addElement(entry);
+        table.add(entry);
         return entry;
 
     }
@@ -80,32 +77,34 @@ public class FileTable {
      * @param e entry to be freed
      * @return if entry was succesfully freed
      */
-    public synchronized boolean ffree( FileTableEntry e ) {
+    public boolean ffree( FileTableEntry e ) {
         // receive a file table entry reference
 
-        Inode inode = new Inode(e.iNumber);
+        Inode inode = e.inode;
         // free this file table entry.
         // return true if this file table entry found in my table
 
         if(table.remove(e)) {
-            switch (inode.flag){
-                case 3:
-                    if(inode.count == 1){ inode.flag = 1; } //used
-                    break;
+            synchronized(inode){
+                switch (inode.flag){
+                    case 3:
+                        if(inode.count == 1){ inode.flag = 1; } //used
+                        break;
 
-                case 4:
-                    inode.flag = 1;//used
-                    break;
+                    case 4:
+                        inode.flag = 1;//used
+                        break;
 
-                default:
-                    throw new IllegalStateException("Unexpected value: " + inode.flag);
-            }
+                    case 1: //already released by another entry sharing this inode
+                        break;
 
-            //decrease count
-            inode.count--;
+                    default:
+                        throw new IllegalStateException("Unexpected value: " + inode.flag);
+                }
+            }
 
-            // save the corresponding inode to the disk
-            inode.toDisk(e.iNumber);
+            // decrease count, the inode is saved to disk once no entry uses it
+            inodes.iput(e.iNumber, inode);
             return true;
 
         }
@@ -116,7 +115,7 @@ public class FileTable {
      * check if the table is empty
      * @return true table empty, false table has entries
      */
-    public synchronized boolean fempty( ) {
+    public boolean fempty( ) {
         return table.isEmpty( );  // return if table is empty
     }                            // should be called before starting a format
 }
@@ -1,3 +1,5 @@
+import java.util.concurrent.locks.ReentrantLock;
+
 /*
  * Andrew Montgomery, Daniel Yakovlev
  */
@@ -8,6 +10,11 @@ public class FileTableEntry {           // Each table entry should have
     public final short iNumber;         // the inode number
     public int count;                   // # threads sharing this entry
     public final String mode;           // "r", "w", "w+", or "a"
+    public int readEnd;                 // where the last read stopped, a read starting here is sequential
+    public int readAhead;               // # blocks read ahead of a sequential reader, 0 if not sequential
+    public int prefetched;              // the file block after the last one read ahead
+    public final ReentrantLock lock;    // guards the fields above, a lock rather than a monitor since a
+                                        // write holds it during its disk I/O
 
     public FileTableEntry(Inode i, short inumber, String m)
     {
@@ -18,5 +25,9 @@ public class FileTableEntry {           // Each table entry should have
         mode = m;                       // once access mode is set, it never changes
         if(mode.compareTo("a") == 0)    // if mode is append,
             seekPtr = inode.length;     // seekPtr points to the end of the file
+        readEnd = seekPtr;              // reading from the start position counts as sequential
+        readAhead = 0;
+        prefetched = 0;
+        lock = new ReentrantLock();
     }
 }
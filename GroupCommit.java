@@ -0,0 +1,65 @@
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Andrew Montgomery, Daniel Yakovlev
+ * Group commit for the file system's flushes. Every caller asks for a flush that covers the changes it made before
+ * the call. One flush runs at a time, by the first caller that gets to it (the leader), and it covers every call
+ * made before it started. The callers that arrive while it runs wait for it, and the first one to wake up runs one
+ * flush for all of them. So when many threads sync at once, the disk sees a few flushes instead of one per caller,
+ * and the changes of the whole group (such as several inodes in the same inode block) are written together. The
+ * waiting is done on a ReentrantLock rather than a monitor, so a waiting virtual thread gives up its carrier.
+ */
+
+public class GroupCommit {
+    private long requested;                             // # calls so far
+    private long covered;                               // # calls covered by the last flush that finished
+    private boolean running;                            // a flush is running
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition finished = lock.newCondition();    // signalled when a flush ends
+
+    /*
+     * Method that returns once a flush that started after this call has finished, running it if no other
+     * caller does
+     * @Param flush: Writes the changes, run without the lock of this object
+     */
+    public void commit(Runnable flush)
+    {
+        long ticket;
+        long covers;
+        lock.lock();
+        try {
+            ticket = ++requested;
+            while(running && covered < ticket)         // The running flush may have started before this call
+            {
+                finished.awaitUninterruptibly();
+            }
+            if(covered >= ticket)                       // Another caller's flush covered this one
+            {
+                return;
+            }
+            running = true;
+            covers = requested;                         // Every call so far made its changes before this flush
+        } finally {
+            lock.unlock();
+        }
+
+        boolean done = false;
+        try {
+            flush.run();
+            done = true;
+        } finally {
+            lock.lock();
+            try {
+                running = false;
+                if(done)
+                {
+                    covered = Math.max(covered, covers);
+                }
+                finished.signalAll();                   // If the flush failed, the next caller runs its own
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -1,21 +1,83 @@
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
 /*
  * Andrew Montgomery, Daniel Yakovlev
- * 
+ *
  * The Inode class is a simplified version of the Linux inode.  Each inode represents a file system
  * object (i.e. a file) and stores the attributes (length of the file, count of file table entries
  * using the file, flag of whether it is being used or not) of the file. Each Inode also has 11 direct
- * pointers pointing to direct blocks, and 1 indirect pointer pointing to an indirect block. Each inode
- * has an iNumber that is used as a unique identifier for the particular inode.
+ * pointers pointing to direct blocks, and 3 indirect pointers: a single indirect block of pointers to data
+ * blocks, a double indirect block of pointers to indirect blocks, and a triple indirect block of pointers to
+ * double indirect blocks. Each inode has an iNumber that is used as a unique identifier for the particular inode.
+ *
+ * Block pointers are 32 bits. On disk an inode is length (4 bytes), flag (2), 2 unused bytes, the direct
+ * pointers (44) and the indirect pointers (12), and a pointer block holds blockSize / 4 pointers. How many inodes
+ * fit in a block and how many pointers fit in a pointer block follow the file system's block size, and are set
+ * again when it changes. The count only means something in memory and is not saved. The pointer blocks are
+ * decoded into tables the first time they are used, so finding a block of a big file does not read the disk again.
+ *
+ * A file of at most inlineSize bytes that has no blocks keeps its data in the inode itself, in the 56 bytes the
+ * pointers use otherwise, and the 2 bytes after the flag are set to 1. Reading such a file only reads its inode
+ * block. While the data is inline every pointer is -1, and the file system moves the data to a block once the
+ * file grows past inlineSize.
  */
 public class Inode {
-    private final static int iNodeSize = 32;        // fix to 32 bytes
+    private final static int iNodeSize = 64;        // fix to 64 bytes
     private final static int directSize = 11;       // # direct pointers
+    private final static int indirectLevels = 3;    // single, double and triple indirect
+    public final static int inlineSize = (directSize + indirectLevels) * 4;    // # data bytes kept in the inode
+    private static int pointers;                    // # pointers in a pointer block
+    public static int inodesPerBlock;               // # inodes in an inode block
+    public static int maxBlocks;                    // # blocks a file can have
+
+    static
+    {
+        setBlockSize(FileSystem.blockSize);
+    }
 
     public int length;                              // file size in bytes
     public short count;                             // # file-table entries pointing to this
     public short flag;                              // 0 = unused, 1 = used
-    public short direct[] = new short[directSize];  // direct pointers
-    public short indirect;                          // an indirect pointer
+    public int direct[] = new int[directSize];      // direct pointers
+    public int indirect[] = new int[indirectLevels];   // single, double and triple indirect pointers
+    public boolean dirty;                           // in-memory copy differs from the disk, not saved
+    private byte[] data;                            // the file's data when it is inline, otherwise null
+    public final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();   // shared by readers of the file's
+                                                    // data and length, exclusive for writers and truncation
+
+    private Table tables[] = new Table[indirectLevels];    // decoded indirect blocks, null until first used
+    private final ReentrantLock loading = new ReentrantLock();  // held while a table is read and decoded
+
+    /*
+     * A decoded pointer block, and the decoded blocks it points to when they hold pointers too
+     */
+    private static class Table {
+        final int block;                            // the pointer block
+        final int[] pointers;                       // its pointers, -1 if unused
+        final Table[] children;                     // decoded blocks below, null if these point to data blocks
+        boolean dirty;                              // pointers has changes not saved to the block
+
+        Table(int block, int[] pointers, boolean leaf)
+        {
+            this.block = block;
+            this.pointers = pointers;
+            this.children = leaf ? null : new Table[Inode.pointers];
+        }
+    }
+
+    /*
+     * Method that sets the sizes that follow the block size. Only FileSystem.setBlockSize calls it, before any
+     * inode of the new size is made
+     * @Param blockSize: The block size in bytes
+     */
+    static void setBlockSize(int blockSize)
+    {
+        pointers = blockSize / 4;
+        inodesPerBlock = blockSize / iNodeSize;
+        maxBlocks = (int)Math.min(start(indirectLevels), Integer.MAX_VALUE / blockSize);
+    }
 
     /*
      * Default constructor for Inode. Initializes all variables to their default values
@@ -30,7 +92,10 @@ public class Inode {
         {
             direct[i] = -1;
         }
-        indirect = -1;
+        for(int i = 0; i < indirectLevels; i++)
+        {
+            indirect[i] = -1;
+        }
     }
 
     /*
@@ -40,26 +105,35 @@ public class Inode {
      */
     Inode(short iNumber)                                            // retrieving inode from disk
     {
-        int blockNumber = 1 + iNumber / 16;                         // location of inode on disk
-        byte[] data = new byte[Disk.blockSize];                     // holds data from the inode
-        SysLib.rawread(blockNumber, data);                          // read data from block
-        int offset = (iNumber % 16) * 32;                           // offset is used to track location in the block
+        int blockNumber = 1 + iNumber / inodesPerBlock;             // location of inode on disk
+        byte[] data = BlockBuffers.block();                         // holds data from the inode
+        SysLib.cread(blockNumber, data);                            // read data from block
+        int offset = (iNumber % inodesPerBlock) * iNodeSize;        // offset is used to track location in the block
 
                                                                     // Load variables in order based on where they
         this.length = SysLib.bytes2int(data, offset);               // are located in the Inode
         offset += 4;
-        this.count = SysLib.bytes2short(data, offset);
-        offset += 2;
-        this.flag = SysLib.bytes2short(data, offset);
-        offset += 2;
+        this.flag = SysLib.bytes2short(data, offset);               // The count is not kept on disk
+        boolean inline = SysLib.bytes2short(data, offset + 2) == 1;
+        offset += 4;
 
+        if(inline)                                                  // The data is where the pointers would be
+        {
+            this.data = Arrays.copyOfRange(data, offset, offset + inlineSize);
+            clearPointers();
+            return;
+        }
 
         for(int i = 0; i < directSize; i++)                         // Load 11 direct pointers
         {
-            this.direct[i] = SysLib.bytes2short(data, offset);
-            offset += 2;
+            this.direct[i] = SysLib.bytes2int(data, offset);
+            offset += 4;
+        }
+        for(int i = 0; i < indirectLevels; i++)                     // Load the indirect pointers
+        {
+            this.indirect[i] = SysLib.bytes2int(data, offset);
+            offset += 4;
         }
-        this.indirect = SysLib.bytes2short(data, offset);           // Load the indirect pointer
     }
 
     /*
@@ -69,88 +143,303 @@ public class Inode {
      */
     public int toDisk(short iNumber)
     {
-        int blockNumber = (iNumber / 16) + 1;                       // location of inode in memory
-        byte[] node = new byte[iNodeSize];                          // holds data from the inode
-        int offset = 0;                                             // tracks data in the block
+        int blockNumber = (iNumber / inodesPerBlock) + 1;           // location of inode in memory
 
-        SysLib.int2bytes(length, node, offset);                     // Reads variables from block and coverts to
-        offset += 4;                                                // bytes so that they can be saved to the disk
-        SysLib.short2bytes(count, node, offset);
-        offset += 2;
-        SysLib.short2bytes(flag, node, offset);
-        offset += 2;
-        for(int i = 0; i < directSize; i++)
+        for(int i = 0; i < indirectLevels; i++)                     // Save the pointer tables to their blocks
+        {
+            saveTables(tables[i], null);
+        }
+
+        byte[] block = BlockBuffers.block();                        // The pointers were already written
+        SysLib.cread(blockNumber, block);
+        inode2bytes(block, (iNumber % inodesPerBlock) * iNodeSize); // Copy the node data into the block
+        SysLib.cwrite(blockNumber, block);                            // Write over original block with updated block
+        dirty = false;
+        return blockNumber;
+    }
+
+    /*
+     * Method that saves an Inode into the running transaction of the journal instead of the cache. The pointer
+     * blocks are added before the inode block, so the inode never points to a pointer block that was not saved.
+     * The caller must hold the journal's lock
+     * @param iNumber: The unique identifier for the Inode that is being saved
+     * @param journal: The journal of the file system
+     * @return blockNumber: The block number that the Inode is saved to
+     */
+    public int toDisk(short iNumber, Journal journal)
+    {
+        int blockNumber = (iNumber / inodesPerBlock) + 1;
+
+        for(int i = 0; i < indirectLevels; i++)
         {
-            SysLib.short2bytes(direct[i], node, offset);
-            offset += 2;
+            saveTables(tables[i], journal);
         }
-        SysLib.short2bytes(indirect, node, offset);
 
-        offset = (iNumber % 16) * iNodeSize;                           // Reset the offset
-        byte[] block = new byte[512];
-        SysLib.rawread(blockNumber, block);
-        System.arraycopy(node, 0, block, offset, iNodeSize);    // Copy the node data into the block
-        SysLib.rawwrite(blockNumber, block);                          // Write over original block with updated block
+        inode2bytes(journal.getBlock(blockNumber), (iNumber % inodesPerBlock) * iNodeSize);
+        dirty = false;
         return blockNumber;
     }
 
     /*
-     * Method that is used to set the index block for indirect access. This method only sets the index
-     * block when all of the direct blocks are currently in used
-     * @Param freeBlock: The block where the index block will be located
-     * @Return boolean: Returns false if all the direct blocks are not currently being used, or if the indirect
-     * block is already in use. Returns true if the indirect block is successfully initialized
+     * Method that converts the Inode into bytes inside its inode block
+     * @param block: The inode block
+     * @param offset: Where the Inode starts in the block
+     */
+    private void inode2bytes(byte[] block, int offset)
+    {
+        SysLib.int2bytes(length, block, offset);                    // Coverts the variables to bytes so that
+        offset += 4;                                                // they can be saved to the disk
+        SysLib.short2bytes(flag, block, offset);
+        SysLib.short2bytes((short) (data != null ? 1 : 0), block, offset + 2);
+        offset += 4;
+        if(data != null)                                            // The data takes the place of the pointers
+        {
+            System.arraycopy(data, 0, block, offset, inlineSize);
+            return;
+        }
+        for(int i = 0; i < directSize; i++)
+        {
+            SysLib.int2bytes(direct[i], block, offset);
+            offset += 4;
+        }
+        for(int i = 0; i < indirectLevels; i++)
+        {
+            SysLib.int2bytes(indirect[i], block, offset);
+            offset += 4;
+        }
+    }
+
+    /*
+     * Method that saves the pointer tables of one indirect pointer that changed. The blocks that others point to
+     * are saved before the blocks that point to them
+     * @param table: The table of the indirect pointer, or null if it was never loaded
+     * @param journal: The journal of the file system, or null to write the blocks through the cache
+     */
+    private void saveTables(Table table, Journal journal)
+    {
+        if(table == null)
+        {
+            return;
+        }
+        if(table.children != null)
+        {
+            for(int i = 0; i < pointers; i++)
+            {
+                saveTables(table.children[i], journal);
+            }
+        }
+        if(table.dirty)
+        {
+            byte[] block = (journal != null) ? journal.getBlock(table.block) : BlockBuffers.block();
+            for(int i = 0; i < pointers; i++)
+            {
+                SysLib.int2bytes(table.pointers[i], block, i * 4);
+            }
+            if(journal == null)
+            {
+                SysLib.cwrite(table.block, block);
+            }
+            table.dirty = false;
+        }
+    }
+
+    /*
+     * Method that counts the pointer blocks that must be added before every block in a range of the file can
+     * be set: for each indirect pointer its block and the pointer blocks under it
+     * @Param first: The first block of the range, as a block index within the file
+     * @Param last: The last block of the range
+     * @Return int: The number of pointer blocks missing
      */
-    public boolean setIndexBlock(short freeBlock)
+    public int indexBlocksNeeded(int first, int last)
     {
-        for(int i = 0; i < 11; i++)                                 // Checks whether the direct blocks are in use
+        int needed = 0;
+        for(int level = 0; level < indirectLevels; level++)
         {
-            if(this.direct[i] == -1)
+            long start = start(level);                              // The first file block under this pointer
+            long from = Math.max(first, start) - start;
+            long to = Math.min(last, start + span(level + 1) - 1) - start;
+            for(int depth = 0; depth <= level && from <= to; depth++)   // Every table the range goes through
             {
-                return false;
+                long covers = span(level + 1 - depth);              // # file blocks under one table at this depth
+                for(long n = from / covers; n <= to / covers; n++)
+                {
+                    if(table(level, depth, n) == null)
+                    {
+                        needed++;
+                    }
+                }
             }
         }
+        return needed;
+    }
 
-        if(this.indirect != -1)                                     // Checks whether the indirect block is in use
+    /*
+     * Method that adds the next pointer block missing on the way to a block of the file. Call it until it returns
+     * false, then the block can be set with setTargetBlock
+     * @Param targetBlock: The block index within the file
+     * @Param freeBlock: The block that becomes the pointer block
+     * @Return boolean: Returns true if freeBlock was used, false if no pointer block is missing
+     */
+    public boolean setIndexBlock(int targetBlock, int freeBlock)
+    {
+        int level = level(targetBlock);
+        if(level < 0)
         {
             return false;
-        } else {
-            this.indirect = freeBlock;                              // Indirect block is not in use, set to freeBlock
-            byte[] block = new byte[512];                           // Block that holds pointers
+        }
+        long block = targetBlock - start(level);
 
-            for(int i = 0; i < 256; i++)
+        if(indirect[level] == -1)
+        {
+            indirect[level] = freeBlock;
+            tables[level] = newTable(freeBlock, level == 0);        // Table that holds pointers, saved to the
+            this.dirty = true;                                      // block by toDisk
+            return true;
+        }
+        Table table = root(level);
+        for(int depth = 1; depth <= level; depth++)
+        {
+            int i = (int)((block / span(level + 1 - depth)) % pointers);
+            if(table.pointers[i] == -1)
             {
-                SysLib.short2bytes((short)-1, block, i*2);
+                table.pointers[i] = freeBlock;
+                table.children[i] = newTable(freeBlock, depth == level);
+                table.dirty = true;
+                this.dirty = true;
+                return true;
             }
+            table = child(table, i, depth == level);
+        }
+        return false;
+    }
 
-            SysLib.rawwrite(freeBlock, block);
-            return true;
+    /*
+     * Method that lists the pointer blocks of the file
+     * @Param blocks: Receives the block numbers, must hold at least indexBlockCount()
+     * @Return int: The number of pointer blocks
+     */
+    public int indexBlocks(int[] blocks)
+    {
+        int count = 0;
+        for(int level = 0; level < indirectLevels; level++)
+        {
+            count = collect(root(level), level, blocks, count);
+        }
+        return count;
+    }
+
+    /*
+     * @Return int: The number of pointer blocks of the file
+     */
+    public int indexBlockCount()
+    {
+        return indexBlocks(null);
+    }
+
+    /*
+     * Method that drops every block pointer of the file, once its blocks were freed, and its inline data
+     */
+    public void clearBlocks()
+    {
+        clearPointers();
+        data = null;
+        dirty = true;
+    }
+
+    /*
+     * Method that sets every pointer to -1 and drops the decoded pointer blocks
+     */
+    private void clearPointers()
+    {
+        for(int i = 0; i < directSize; i++)
+        {
+            direct[i] = -1;
         }
+        for(int i = 0; i < indirectLevels; i++)
+        {
+            indirect[i] = -1;
+            tables[i] = null;
+        }
+    }
+
+    /*
+     * @Return boolean: Whether the file's data is kept in the inode
+     */
+    public boolean isInline()
+    {
+        return data != null;
+    }
+
+    /*
+     * Method that copies part of the inline data of the file into a buffer. The caller holds the read lock
+     * @Param offset: Where the range starts in the file
+     * @Param buffer: Receives the data, from its start
+     * @Param size: The length of the range, it is cut at the end of the file and of the buffer
+     * @Return int: The number of bytes copied, 0 if the range starts at or past the end of the file
+     */
+    public int readInline(int offset, byte[] buffer, int size)
+    {
+        if(data == null || offset < 0 || offset >= length || size <= 0)
+        {
+            return 0;
+        }
+        size = Math.min(size, Math.min(length - offset, buffer.length));
+        System.arraycopy(data, offset, buffer, 0, size);
+        return size;
+    }
+
+    /*
+     * Method that writes a buffer into the inode, if the file is inline or empty with no blocks and the data
+     * still fits. The file grows if the data goes past its end. The caller holds the write lock
+     * @Param start: Where the data goes in the file, at most the length of the file
+     * @Param buffer: The data being written
+     * @Return boolean: Returns true if the data was written, false if it has to go to blocks
+     */
+    public boolean writeInline(int start, byte[] buffer)
+    {
+        if(start + buffer.length > inlineSize || (data == null && (length > 0 || direct[0] != -1)))
+        {
+            return false;
+        }
+        if(data == null)
+        {
+            data = new byte[inlineSize];
+        }
+        System.arraycopy(buffer, 0, data, start, buffer.length);
+        length = Math.max(length, start + buffer.length);
+        dirty = true;
+        return true;
+    }
+
+    /*
+     * Method that takes the inline data out of the inode, so the file can be moved to blocks. The length is
+     * kept, and the file has no blocks until the caller writes the data back
+     * @Return byte[]: The data of the file
+     */
+    public byte[] takeInline()
+    {
+        byte[] inline = Arrays.copyOf(data, length);
+        data = null;
+        dirty = true;
+        return inline;
     }
 
     /*
      * Method that finds the index of a block based upon the seek pointer position. Determines whether a block
      * is available through direct or indirect access.
      * @Param seekPtrPos: The position of the seek pointer
-     * @Return short: The target block that is found, -1 indicates that no block was found
+     * @Return int: The target block that is found, -1 indicates that no block was found
      */
-    public short findTargetBlock(int seekPtrPos)
+    public int findTargetBlock(int seekPtrPos)
     {
-        int targetBlock = (seekPtrPos / Disk.blockSize);        // Location of the target block
+        int targetBlock = (seekPtrPos / FileSystem.blockSize);        // Location of the target block
 
         if(targetBlock < 11)                                    // If location is less than 11, then block is in direct
         {                                                       // access
             return this.direct[targetBlock];
         }
-        else if (this.indirect < 0)                             // Target block is not in direct access, and no indirect
-        {                                                       // block exists
-            return -1;
-        } else {
-            byte[] blockData = new byte[Disk.blockSize];        // Block is located in indirect access
-            SysLib.rawread(this.indirect, blockData);
-            int block = (targetBlock - 11) * 2;
-            return SysLib.bytes2short(blockData, block);
-        }
+        Table table = leaf(targetBlock);                        // Pointer block holding the target block, if there
+        return (table == null) ? -1 : table.pointers[(targetBlock - directSize) % pointers];  // is one
     }
 
     /*
@@ -159,9 +448,9 @@ public class Inode {
      * @Param freeBlock: The free block to be used
      * @Return Int: Returns 0 for success, or -1, -2, -3 for errors related to registering into
      */
-    public int setTargetBlock(int seekPtrPos, short freeBlock)
+    public int setTargetBlock(int seekPtrPos, int freeBlock)
     {
-        int targetBlock = seekPtrPos/Disk.blockSize;            // The target block
+        int targetBlock = seekPtrPos/FileSystem.blockSize;            // The target block
 
         if(targetBlock < 11)                                    // Target block is in direct access
         {
@@ -171,23 +460,216 @@ public class Inode {
                 return -2;                                                          // instead)
             } else {                                            // Direct block is not being used, so use it
                 this.direct[targetBlock] = freeBlock;
+                this.dirty = true;
                 return 0;
             }
-        } else if(this.indirect < 0)                            // Target block is not in direct blocks, but no indirect
-        {                                                       // blocks exist
+        }
+
+        if(level(targetBlock) < 0)                              // Past the last block a file can have
+        {
+            return -1;
+        }
+        Table table = leaf(targetBlock);
+        if(table == null)                                       // Its pointer blocks do not exist yet
+        {
             return -3;
-        } else {
-            byte[] blockData = new byte[Disk.blockSize];        // Read the block data from the indirect block
-            SysLib.rawread(this.indirect, blockData);
-            int block = (targetBlock - 11) * 2;
-            if(SysLib.bytes2short(blockData, block) > 0)        // If indirect block is already in use, return -1
+        }
+        int i = (targetBlock - directSize) % pointers;
+        if(table.pointers[i] != -1)                             // If the block is already in use, return -1
+        {
+            return -1;
+        }
+        table.pointers[i] = freeBlock;                          // Use the block
+        table.dirty = true;
+        this.dirty = true;
+        return 0;
+    }
+
+    /*
+     * Method that finds the pointer block holding the pointer to a block of the file
+     * @Param targetBlock: The block index within the file, past the direct blocks
+     * @Return Table: The pointer block, or null if it does not exist
+     */
+    private Table leaf(int targetBlock)
+    {
+        int level = level(targetBlock);
+        if(level < 0)
+        {
+            return null;
+        }
+        return table(level, level, (targetBlock - start(level)) / pointers);
+    }
+
+    /*
+     * Method that finds a pointer block under an indirect pointer
+     * @Param level: The indirect pointer, 0 for single, 1 for double and 2 for triple
+     * @Param depth: How far below the indirect pointer's own block the table is
+     * @Param n: Which table at that depth, counting from the left
+     * @Return Table: The pointer block, or null if it does not exist
+     */
+    private Table table(int level, int depth, long n)
+    {
+        Table table = root(level);
+        for(int d = 1; d <= depth && table != null; d++)
+        {
+            table = child(table, (int)((n / span(depth - d)) % pointers), d == level);
+        }
+        return table;
+    }
+
+    /*
+     * Method that lists the pointer blocks of a table and the tables under it
+     * @Param table: The table, or null
+     * @Param height: The number of levels of tables under it
+     * @Param blocks: Receives the block numbers, or null to only count them
+     * @Param count: The number of blocks already listed
+     * @Return int: The number of blocks listed
+     */
+    private int collect(Table table, int height, int[] blocks, int count)
+    {
+        if(table == null)
+        {
+            return count;
+        }
+        if(height > 0)
+        {
+            for(int i = 0; i < pointers; i++)
             {
-                return -1;
-            } else {                                            // Use the indirect block
-                SysLib.short2bytes(freeBlock, blockData, block);
-                SysLib.rawwrite(this.indirect, blockData);
-                return 0;
+                count = collect(child(table, i, height == 1), height - 1, blocks, count);
             }
         }
+        if(blocks != null)
+        {
+            blocks[count] = table.block;
+        }
+        return count + 1;
+    }
+
+    /*
+     * Method that returns the table of an indirect pointer, reading and decoding the block the first time it is
+     * needed. Later lookups use the in-memory table and do not touch the disk. Readers holding the shared lock
+     * can get here together, so the loading lock is held, a ReentrantLock so a virtual thread reading the block
+     * does not pin its carrier.
+     * @Param level: The indirect pointer
+     * @Return Table: The table, or null if the pointer is not set
+     */
+    private Table root(int level)
+    {
+        loading.lock();
+        try {
+            if(tables[level] == null && indirect[level] != -1)
+            {
+                tables[level] = loadTable(indirect[level], level == 0);
+            }
+            return tables[level];
+        } finally {
+            loading.unlock();
+        }
+    }
+
+    /*
+     * Method that returns a table below another one, reading it the first time it is needed
+     * @Param table: The table pointing to it
+     * @Param i: The pointer of the table
+     * @Param leaf: Whether the table below points to data blocks
+     * @Return Table: The table, or null if the pointer is not set
+     */
+    private Table child(Table table, int i, boolean leaf)
+    {
+        loading.lock();
+        try {
+            if(table.children[i] == null && table.pointers[i] != -1)
+            {
+                table.children[i] = loadTable(table.pointers[i], leaf);
+            }
+            return table.children[i];
+        } finally {
+            loading.unlock();
+        }
+    }
+
+    /*
+     * Method that reads and decodes a pointer block
+     * @Param block: The pointer block
+     * @Param leaf: Whether the block points to data blocks
+     * @Return Table: Its table
+     */
+    private static Table loadTable(int block, boolean leaf)
+    {
+        byte[] blockData = BlockBuffers.block();
+        SysLib.cread(block, blockData);
+        int[] table = new int[pointers];
+        for(int i = 0; i < pointers; i++)
+        {
+            table[i] = SysLib.bytes2int(blockData, i * 4);
+        }
+        return new Table(block, table, leaf);
+    }
+
+    /*
+     * Method that makes a table for a new pointer block, with every pointer unused
+     * @Param block: The pointer block
+     * @Param leaf: Whether the block points to data blocks
+     * @Return Table: The table, to be saved to the block
+     */
+    private static Table newTable(int block, boolean leaf)
+    {
+        int[] table = new int[pointers];
+        for(int i = 0; i < pointers; i++)
+        {
+            table[i] = -1;
+        }
+        Table newTable = new Table(block, table, leaf);
+        newTable.dirty = true;
+        return newTable;
+    }
+
+    /*
+     * Method that finds the indirect pointer a block of the file is under
+     * @Param targetBlock: The block index within the file, past the direct blocks
+     * @Return int: 0 for single, 1 for double and 2 for triple, or -1 if the block is past the last one
+     */
+    private static int level(int targetBlock)
+    {
+        if(targetBlock < directSize || targetBlock >= maxBlocks)
+        {
+            return -1;
+        }
+        for(int level = 0; level < indirectLevels; level++)
+        {
+            if(targetBlock < start(level) + span(level + 1))
+            {
+                return level;
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * @Param level: The indirect pointer
+     * @Return long: The first block of the file under the indirect pointer
+     */
+    private static long start(int level)
+    {
+        long start = directSize;
+        for(int i = 0; i < level; i++)
+        {
+            start += span(i + 1);
+        }
+        return start;
+    }
+
+    /*
+     * @Param height: The number of levels of pointer blocks
+     * @Return long: The number of blocks that many levels point to
+     */
+    private static long span(int height)
+    {
+        long span = 1;
+        for(int i = 0; i < height; i++)
+        {
+            span *= pointers;
+        }
+        return span;
     }
 }
@@ -0,0 +1,103 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Andrew Montgomery, Daniel Yakovlev
+ * Inode Table class holds the in-memory copies of the inodes. There is only one Inode object per iNumber,
+ * so every file table entry of the same file shares its length, count and flag. An inode stays in the table
+ * while its count is above 0, and is written back to the disk only when it is dirty. Dirty inodes are written
+ * through the journal when the file system commits, and stay in the table until then. Loading an inode reads
+ * the disk with the table locked, so the lock is a ReentrantLock, on which a virtual thread does not pin its carrier.
+ */
+
+public class InodeTable {
+    private final static int maxCachedInodes = 64;  // # unused inodes kept in memory before evicting
+
+    private LinkedHashMap<Short, Inode> table;      // in-memory inodes, in least recently used order
+    private final ReentrantLock lock = new ReentrantLock();    // guards the table and the counts
+
+    public InodeTable( ) { // constructor
+        table = new LinkedHashMap<Short, Inode>( 16, 0.75f, true );
+    }
+
+    /**
+     * returns the in-memory inode for an iNumber and pins it, loading it from disk if it is not cached
+     * @param iNumber inode number to look up
+     * @return the shared inode, with its count incremented
+     */
+    public Inode iget( short iNumber ) {
+        lock.lock();
+        try {
+            Inode inode = table.get(iNumber);
+
+            if(inode == null){
+                inode = new Inode(iNumber);
+                inode.count = 0; //the count on disk is stale, only open entries count
+                table.put(iNumber, inode);
+            }
+
+            inode.count++;
+            evict();
+            return inode;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * unpins an inode. A changed inode is saved by the next commit of the file system
+     * @param iNumber inode number of the inode
+     * @param inode inode returned by iget
+     */
+    public void iput( short iNumber, Inode inode ) {
+        lock.lock();
+        try {
+            inode.count--;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * adds every dirty inode in the table to the running transaction of the journal. The caller must hold the
+     * journal's lock
+     * @param journal journal of the file system
+     */
+    public void sync( Journal journal ) {
+        lock.lock();
+        try {
+            for(Map.Entry<Short, Inode> entry : table.entrySet()){
+                Inode inode = entry.getValue();
+                if(inode.dirty){
+                    inode.lock.readLock().lock(); //writers of the file are not changing it while it is saved
+                    try {
+                        inode.toDisk(entry.getKey(), journal);
+                    } finally {
+                        inode.lock.readLock().unlock();
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * drops the least recently used inodes that are not in use once the table grows past its limit. Dirty
+     * inodes are kept until they are committed, so the table can grow past the limit between commits
+     */
+    private void evict( ) {
+        Iterator<Map.Entry<Short, Inode>> it = table.entrySet().iterator();
+
+        while(table.size() > maxCachedInodes && it.hasNext()){
+            Map.Entry<Short, Inode> entry = it.next();
+            Inode inode = entry.getValue();
+
+            if(inode.count == 0 && !inode.dirty){//pinned and uncommitted inodes are never evicted
+                it.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,212 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Andrew Montgomery, Daniel Yakovlev
+ * Write-ahead journal for the file system's metadata (the superblock, the bitmap, the inodes, the indirect blocks
+ * and the directory). Changed metadata blocks are collected in a transaction, and a commit appends the whole
+ * transaction to the journal region as one sequential write: a descriptor block listing the home blocks, the new
+ * block images, and a commit block. Only then are the images written to their home blocks through the cache. If
+ * the system stops before the home blocks reach the disk, the last committed transaction is replayed on mount.
+ *
+ * Every commit first writes the cache back, so the previous transaction is already at home and the journal is
+ * always reused from its start. The journal blocks themselves never go through the cache.
+ *
+ * A commit writes to the disk while it holds the journal's lock, so the lock is a ReentrantLock: a virtual thread
+ * waiting for it, or writing under it, gives up its carrier.
+ */
+
+public class Journal {
+    private final static int DESCRIPTOR = 0x4A524E4C;     // Marks a descriptor block, "JRNL"
+    private final static int COMMIT = 0x434D4954;         // Marks a commit block, "CMIT"
+
+    private final int start;                            // The first block of the journal region
+    private final int blocks;                           // The number of blocks in the journal region
+    private final int maxImages;                        // The most blocks one transaction can hold
+    private int sequence;                               // The sequence number of the next transaction
+    private LinkedHashMap<Integer, byte[]> transaction; // Home block -> new image of the block, in the order
+                                                        // the blocks were first changed
+    public final ReentrantLock lock = new ReentrantLock();  // held by every method, and by a file system commit
+                                                        // while it adds its blocks
+
+    /*
+     * Constructor for the Journal
+     * @Param start: The first block of the journal region
+     * @Param blocks: The number of blocks in the journal region
+     */
+    public Journal(int start, int blocks)
+    {
+        this.start = start;
+        this.blocks = blocks;
+        maxImages = Math.min(blocks - 2, (FileSystem.blockSize - 12) / 4);
+        transaction = new LinkedHashMap<Integer, byte[]>();
+
+        byte[] descriptor = new byte[FileSystem.blockSize];
+        SysLib.rawread(start, descriptor);
+        sequence = (SysLib.bytes2int(descriptor, 0) == DESCRIPTOR) ? SysLib.bytes2int(descriptor, 4) + 1 : 1;
+    }
+
+    /*
+     * Method that returns the image of a block in the running transaction. The first time a block is changed in
+     * a transaction its image is read from the cache, later calls return the same image. The caller changes the
+     * image in place. If the transaction is full it is committed first, so callers must change the blocks that
+     * others point to (indirect blocks, the bitmap) before the blocks that point to them.
+     * @Param block: The home block number of the metadata block
+     * @Return byte[]: The image that will be committed for the block
+     */
+    public byte[] getBlock(int block)
+    {
+        lock.lock();
+        try {
+            byte[] image = transaction.get(block);
+            if(image == null)
+            {
+                if(transaction.size() == maxImages)
+                {
+                    commit();
+                }
+                image = new byte[FileSystem.blockSize];
+                SysLib.cread(block, image);
+                transaction.put(block, image);
+            }
+            return image;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Method that commits the running transaction: the descriptor and the images are appended to the journal with
+     * one vectored write, then the commit block is written, then the images are written to their home blocks in
+     * the cache. Barriers keep the disk image in that order: a commit block is never in the image without the
+     * blocks it commits, and no home block is written back before its transaction is committed
+     */
+    public void commit()
+    {
+        lock.lock();
+        try {
+            if(transaction.isEmpty())
+            {
+                return;
+            }
+
+            // File data and the home blocks of the last transaction reach the disk first. Nothing in the journal
+            // is needed after that, so the new transaction can overwrite it
+            SysLib.csync();
+            SysLib.rawbarrier();
+
+            int count = transaction.size();
+            int[] blocks = new int[count + 1];
+            byte[][] buffers = new byte[count + 1][];
+            byte[] descriptor = new byte[FileSystem.blockSize];
+            SysLib.int2bytes(DESCRIPTOR, descriptor, 0);
+            SysLib.int2bytes(sequence, descriptor, 4);
+            SysLib.int2bytes(count, descriptor, 8);
+            blocks[0] = start;
+            buffers[0] = descriptor;
+
+            int checksum = 0;
+            int i = 0;
+            for(Map.Entry<Integer, byte[]> entry : transaction.entrySet())
+            {
+                SysLib.int2bytes(entry.getKey(), descriptor, 12 + i * 4);
+                blocks[i + 1] = start + 1 + i;
+                buffers[i + 1] = entry.getValue();
+                checksum = checksum(checksum, entry.getValue());
+                i++;
+            }
+            SysLib.rawwritev(blocks, count + 1, buffers);       // One sequential append
+            SysLib.rawbarrier();
+
+            // The transaction counts once the commit block is on the disk
+            byte[] commitBlock = new byte[FileSystem.blockSize];
+            SysLib.int2bytes(COMMIT, commitBlock, 0);
+            SysLib.int2bytes(sequence, commitBlock, 4);
+            SysLib.int2bytes(checksum, commitBlock, 8);
+            SysLib.rawwrite(start + 1 + count, commitBlock);
+            SysLib.rawbarrier();
+
+            for(Map.Entry<Integer, byte[]> entry : transaction.entrySet())
+            {
+                SysLib.cwrite(entry.getKey(), entry.getValue());
+            }
+            transaction.clear();
+            sequence++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Method that replays the last committed transaction, writing its images to their home blocks. Replaying a
+     * transaction that already reached its home blocks does no harm. A transaction without a valid commit block
+     * was not finished and is ignored.
+     * @Return boolean: Returns true if a transaction was replayed, otherwise false
+     */
+    public boolean replay()
+    {
+        lock.lock();
+        try {
+            byte[] descriptor = new byte[FileSystem.blockSize];
+            SysLib.rawread(start, descriptor);
+            int seq = SysLib.bytes2int(descriptor, 4);
+            int count = SysLib.bytes2int(descriptor, 8);
+            if(SysLib.bytes2int(descriptor, 0) != DESCRIPTOR || count < 1 || count > maxImages)
+            {
+                return false;
+            }
+
+            byte[] commitBlock = new byte[FileSystem.blockSize];
+            SysLib.rawread(start + 1 + count, commitBlock);
+            if(SysLib.bytes2int(commitBlock, 0) != COMMIT || SysLib.bytes2int(commitBlock, 4) != seq)
+            {
+                return false;
+            }
+
+            byte[][] images = new byte[count][FileSystem.blockSize];
+            int checksum = 0;
+            for(int i = 0; i < count; i++)
+            {
+                SysLib.rawread(start + 1 + i, images[i]);
+                checksum = checksum(checksum, images[i]);
+            }
+            if(checksum != SysLib.bytes2int(commitBlock, 8))      // Torn transaction
+            {
+                return false;
+            }
+
+            for(int i = 0; i < count; i++)
+            {
+                int block = SysLib.bytes2int(descriptor, 12 + i * 4);
+                if(block < start || block >= start + blocks)   // Never write over the journal itself
+                {
+                    SysLib.cwrite(block, images[i]);
+                }
+            }
+            SysLib.csync();
+
+            // Mark the journal empty so the transaction is not replayed again on the next mount
+            SysLib.int2bytes(0, descriptor, 8);
+            SysLib.rawwrite(start, descriptor);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Method that adds a block to the checksum of a transaction
+     * @Param sum: The checksum so far
+     * @Param image: The block being added
+     * @Return int: The new checksum
+     */
+    private static int checksum(int sum, byte[] image)
+    {
+        for(int i = 0; i < image.length; i++)
+        {
+            sum = sum * 31 + image[i];
+        }
+        return sum;
+    }
+}
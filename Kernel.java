@@ -8,6 +8,9 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.concurrent.ThreadFactory;
 
 public class Kernel
 {
@@ -40,8 +43,40 @@ public class Kernel
     public final static int SIZE    = 16; // SysLib.size( int fd )
     public final static int SEEK    = 17; // SysLib.seek( int fd, int offest,
     //              int whence )
-    public final static int FORMAT  = 18; // SysLib.format( int files )
+    public final static int FORMAT  = 18; // SysLib.format( int files ),
+    //                 SysLib.format( int files, int blockSize )
     public final static int DELETE  = 19; // SysLib.delete( String fileName )
+    public final static int FALLOCATE = 20; // SysLib.fallocate( int fd, int length )
+    public final static int MKDIR   = 21; // SysLib.mkdir( String path )
+    public final static int RMDIR   = 22; // SysLib.rmdir( String path )
+    public final static int READDIR = 23; // SysLib.readdir( String path,
+    //                 StringBuffer names )
+
+    // Vectored block I/O: several blocks per call, param is the number of blocks
+    public final static int CREADV    = 24; // SysLib.creadv( int blks[], int count, byte b[] )
+    public final static int CWRITEV   = 25; // SysLib.cwritev( int blks[], int count, byte b[] )
+    public final static int RAWREADV  = 26; // SysLib.rawreadv( int blks[], int count, byte b[][] )
+    public final static int RAWWRITEV = 27; // SysLib.rawwritev( int blks[], int count, byte b[][] )
+
+    // Read-ahead: loads blocks into the cache in the background, param is the number of blocks
+    public final static int CPREFETCH = 28; // SysLib.cprefetch( int blks[], int count )
+
+    // Positional file I/O: the offset is given, and the file's seek pointer is not used or moved
+    public final static int PREAD   = 29; // SysLib.pread( int fd, byte b[], int offset )
+    public final static int PWRITE  = 30; // SysLib.pwrite( int fd, byte b[], int offset )
+
+    // Switches the cache and the disk to blocks of param bytes, used by the file system's format
+    public final static int CBLOCKSIZE = 31; // SysLib.cblocksize( int blockSize )
+
+    // Asynchronous positional file I/O: returns at once, the future is completed once the I/O is done
+    public final static int READASYNC  = 32; // SysLib.readAsync( int fd, byte b[], int offset )
+    public final static int WRITEASYNC = 33; // SysLib.writeAsync( int fd, byte b[], int offset )
+
+    // Block cache statistics: b[0] gets the hits and b[1] the misses since the cache was made
+    public final static int CSTATS = 34; // SysLib.cstats( long b[] )
+
+    // Orders the raw writes: the ones made before it reach the disk image before the ones made after it
+    public final static int RAWBARRIER = 35; // SysLib.rawbarrier( )
 
     // Predefined file descriptors
     public final static int STDIN  = 0;
@@ -54,25 +89,57 @@ public class Kernel
 
     // System thread references
     private static Scheduler scheduler;
-    private static Disk disk;
-    private static Cache cache;
+    private static BlockDevice device;
+    private static BlockCache cache;
+    private static Prefetcher prefetcher;
+    private static GroupCommit syncs;   // runs one flush for the SysLib.sync calls made at the same time
+
+    // # blocks held by the block cache, set with -Dthreados.cache.blocks, at least 16 so a quarter of the cache
+    // holds a read-ahead window
+    private final static String CACHE_PROPERTY = "threados.cache.blocks";
+    private final static int CACHE_BLOCKS = Math.max( 16, Integer.getInteger( CACHE_PROPERTY, 64 ) );
+
+    // Disk backend, chosen at boot with -Dthreados.disk=threaded (the Disk thread, default)
+    // or -Dthreados.disk=mapped (the disk image file mapped into memory)
+    private final static String DISK_PROPERTY  = "threados.disk";
+    private final static String IMAGE_PROPERTY = "threados.disk.image"; // image file, "DISK" by default
+    private final static String BLOCKS_PROPERTY = "threados.disk.blocks"; // # Disk blocks, 1000 by default
+    private final static String BLOCK_SIZE_PROPERTY = "threados.disk.blockSize"; // block size of a new disk
+
+    private final static int DISK_BLOCKS = Integer.getInteger( BLOCKS_PROPERTY, 1000 ); // # Disk blocks on the disk
+    private final static int BLOCK_SIZE = 4096;   // block size of a new disk, unless the property sets it
+
+    // User programs run on platform threads, or on virtual threads with -Dthreados.threads=virtual (Java 21)
+    private final static String THREADS_PROPERTY = "threados.threads";
+    private static ThreadFactory userThreads;     // makes the thread of every program started by SysLib.exec
 
     // Synchronized Queues
     private static SyncQueue waitQueue;  // for threads to wait for their child
     private static SyncQueue ioQueue;    // I/O queue
 
-    private final static int COND_DISK_REQ = 1; // wait condition
-    private final static int COND_DISK_FIN = 2; // wait condition
+    final static int COND_DISK_REQ = 1; // wait condition, also used by ThreadedDisk
+    final static int COND_DISK_FIN = 2; // wait condition
 
     //File System
     private static FileSystem fs;
+    private static AsyncIO aio;          // serves SysLib.readAsync and writeAsync
 
     // Standard input
     private static BufferedReader input
             = new BufferedReader( new InputStreamReader( System.in ) );
 
-    // The heart of Kernel
+    // The heart of Kernel. The block buffers a virtual thread uses in a call are leased for the call, see BlockBuffers
     public static int interrupt( int irq, int cmd, int param, Object args ) {
+        BlockBuffers.enter( );
+        try {
+            return dispatch( irq, cmd, param, args );
+        } finally {
+            BlockBuffers.leave( );
+        }
+    }
+
+    // Serves one interrupt
+    private static int dispatch( int irq, int cmd, int param, Object args ) {
         TCB myTcb;
         switch( irq ) {
             case INTERRUPT_SOFTWARE: // System calls
@@ -82,19 +149,34 @@ public class Kernel
                         scheduler = new Scheduler( );
                         scheduler.start( );
 
-                        // instantiate and start a disk
-                        disk = new Disk( 1000 );
-                        disk.start( );
+                        // pick the kind of thread user programs run on
+                        userThreads = newThreadFactory( );
 
-                        // instantiate a cache memory
-                        cache = new Cache( disk.blockSize, 10 );
+                        // one flush of the disk serves every SysLib.sync waiting for it
+                        syncs = new GroupCommit( );
 
                         // instantiate synchronized queues
                         ioQueue = new SyncQueue( );
                         waitQueue = new SyncQueue( scheduler.getMaxThreads( ) );
 
+                        // instantiate and start a disk, addressed in the block size it was formatted with
+                        device = newDevice( );
+                        int blockSize = formattedBlockSize( );
+                        device.setBlockSize( blockSize );
+                        FileSystem.setBlockSize( blockSize );
+
+                        // instantiate a cache memory, used by the file system for all of its block I/O
+                        cache = new BlockCache( blockSize, CACHE_BLOCKS, device.blocks( ) );
+
+                        // instantiate and start the read-ahead thread that fills the cache
+                        prefetcher = new Prefetcher( cache );
+                        prefetcher.start( );
+
                         //instantiate a file system
-                        fs = new FileSystem( 1000 );
+                        fs = new FileSystem( device.blocks( ), CACHE_BLOCKS );
+
+                        // instantiate and start the I/O threads of the asynchronous file calls
+                        aio = new AsyncIO( fs );
 
                         return OK;
                     case EXEC:
@@ -123,37 +205,18 @@ public class Kernel
                         scheduler.sleepThread( param ); // param = milliseconds
                         return OK;
                     case RAWREAD: // read a block of data from disk
-                        while ( disk.read( param, ( byte[] )args ) == false )
-                            ioQueue.enqueueAndSleep( COND_DISK_REQ );
-                        while ( disk.testAndResetReady( ) == false )
-                            ioQueue.enqueueAndSleep( COND_DISK_FIN );
-
-                        // it's possible that a thread waiting to make a request was released by the disk,
-                        // but then promptly looped back, found the buffer wasn't available for sending (bufferReady == true)
-                        // and then went back to sleep
-
                         // now you can access data in buffer
-                        return OK;
+                        return device.read( param, ( byte[] )args ) ? OK : ERROR;
                     case RAWWRITE: // write a block of data to disk
-                        while ( disk.write( param, ( byte[] )args ) == false )
-                            ioQueue.enqueueAndSleep( COND_DISK_REQ );
-                        while ( disk.testAndResetReady( ) == false )
-                            ioQueue.enqueueAndSleep( COND_DISK_FIN );
-                        // it's possible that a thread waiting to make a request was released by the disk,
-                        // but then promptly looped back, found the buffer wasn't available for sending (bufferReady == true)
-                        // and then went back to sleep
-
-                        return OK;
-                    case  SYNC:     // synchronize disk data to a real file
-                        while ( disk.sync( ) == false )
-                            ioQueue.enqueueAndSleep( COND_DISK_REQ );
-                        while ( disk.testAndResetReady( ) == false )
-                            ioQueue.enqueueAndSleep( COND_DISK_FIN );
-
-                        // it's possible that a thread waiting to make a request was released by the disk,
-                        // but then promptly looped back, found the buffer wasn't available for sending (bufferReady == true)
-                        // and then went back to sleep
-
+                        return device.write( param, ( byte[] )args ) ? OK : ERROR;
+                    case  SYNC:     // synchronize disk data to a real file, once for all concurrent callers
+                        syncs.commit( new Runnable( ) {
+                            public void run( ) {
+                                fs.sync( );     // in-memory file system state and dirty cached blocks
+                                cache.sync( );  // have to reach the disk first
+                                device.sync( );
+                            }
+                        } );
                         return OK;
                     case READ:
                         switch ( param ) {
@@ -226,6 +289,38 @@ public class Kernel
                     case CFLUSH:  // to be implemented in assignment 4
                         cache.flush( );
                         return OK;
+                    case RAWBARRIER: // used by the journal between its blocks and its commit block
+                        return device.barrier( ) ? OK : ERROR;
+                    case CSTATS:  // the counters start over when the block size changes
+                        long[] stats = ( long[] )args;
+                        if ( stats == null || stats.length < 2 )
+                            return ERROR;
+                        stats[0] = cache.getHits( );
+                        stats[1] = cache.getMisses( );
+                        return OK;
+                    case CBLOCKSIZE: // returns the number of blocks of the new size on the disk
+                        if ( SuperBlock.validBlockSize( param ) == false )
+                            return ERROR;
+                        cache.flush( );
+                        device.setBlockSize( param );
+                        FileSystem.setBlockSize( param );
+                        cache = new BlockCache( param, CACHE_BLOCKS, device.blocks( ) );
+                        prefetcher.setCache( cache );
+                        return device.blocks( );
+                    case CREADV:  // blocks go to consecutive parts of one buffer
+                        Object[] creadvArgs = ( Object[] )args;
+                        return cache.readv( ( int[] )creadvArgs[0], param, ( byte[] )creadvArgs[1] ) ? OK : ERROR;
+                    case CWRITEV:
+                        Object[] cwritevArgs = ( Object[] )args;
+                        return cache.writev( ( int[] )cwritevArgs[0], param, ( byte[] )cwritevArgs[1] ) ? OK : ERROR;
+                    case RAWREADV: // one buffer per block, served as one request by the device
+                        Object[] rawreadvArgs = ( Object[] )args;
+                        return device.readv( ( int[] )rawreadvArgs[0], ( byte[][] )rawreadvArgs[1], param ) ? OK : ERROR;
+                    case RAWWRITEV:
+                        Object[] rawwritevArgs = ( Object[] )args;
+                        return device.writev( ( int[] )rawwritevArgs[0], ( byte[][] )rawwritevArgs[1], param ) ? OK : ERROR;
+                    case CPREFETCH: // returns at once, the blocks are loaded by the prefetcher
+                        return prefetcher.prefetch( ( int[] )args, param ) ? OK : ERROR;
                     case OPEN:    // to be implemented in project
                         myTcb = scheduler.getMyTcb();
                         if(myTcb != null)
@@ -273,7 +368,8 @@ public class Kernel
                         }
                         return ERROR;
                     case FORMAT:  // to be implemented in project
-                        if(fs.format(param) == true)
+                        int size = (args == null) ? FileSystem.blockSize : (Integer) args;
+                        if(fs.format(param, size) == true)
                         {
                             return OK;
                         } else {
@@ -286,14 +382,73 @@ public class Kernel
                         } else {
                             return ERROR;
                         }
+                    case FALLOCATE:
+                        myTcb = scheduler.getMyTcb();
+                        if(myTcb != null)
+                        {
+                            int[] fallocArgs = (int[]) args;
+                            FileTableEntry ftEnt = myTcb.getFtEnt(param);
+                            if(ftEnt != null)
+                            {
+                                return fs.fallocate(ftEnt, fallocArgs[0]);
+                            }
+                        }
+                        return ERROR;
+                    case PREAD:
+                    case PWRITE:
+                        myTcb = scheduler.getMyTcb();
+                        if(myTcb != null)
+                        {
+                            Object[] pioArgs = (Object[]) args;
+                            FileTableEntry ftEnt = myTcb.getFtEnt(param);
+                            if(ftEnt != null)
+                            {
+                                return (cmd == PREAD)
+                                        ? fs.pread(ftEnt, (byte[]) pioArgs[0], (Integer) pioArgs[1])
+                                        : fs.pwrite(ftEnt, (byte[]) pioArgs[0], (Integer) pioArgs[1]);
+                            }
+                        }
+                        return ERROR;
+                    case READASYNC:  // returns at once, an I/O thread completes the future
+                    case WRITEASYNC:
+                        myTcb = scheduler.getMyTcb();
+                        if(myTcb != null)
+                        {
+                            FileTableEntry ftEnt = myTcb.getFtEnt(param);
+                            if(ftEnt != null)
+                            {
+                                aio.submit(cmd == WRITEASYNC, ftEnt, (AsyncIO.Request) args);
+                                return OK;
+                            }
+                        }
+                        return ERROR;
+                    case MKDIR:
+                        return fs.mkdir((String) args) ? OK : ERROR;
+                    case RMDIR:
+                        return fs.rmdir((String) args) ? OK : ERROR;
+                    case READDIR:
+                        Object[] readdirArgs = (Object[]) args;
+                        ArrayList<String> names = fs.readdir((String) readdirArgs[0]);
+                        if(names == null)
+                        {
+                            return ERROR;
+                        }
+                        // append one name per line to the caller's buffer, and return the number of names
+                        StringBuffer buf = (StringBuffer) readdirArgs[1];
+                        for(String name : names)
+                        {
+                            buf.append(name).append('\n');
+                        }
+                        return names.size();
                 }
                 return ERROR;
             case INTERRUPT_DISK: // Disk interrupts
                 // wake up the thread waiting for a service completion
                 ioQueue.dequeueAndWakeup( COND_DISK_FIN );
 
-                // wake up the thread waiting for a request acceptance
-                //    ioQueue.dequeueAndWakeup(COND_DISK_REQ);
+                // wake up the thread waiting for a request acceptance. Only the dispatcher of
+                // ThreadedDisk talks to the disk, so it is the only thread that can be waiting
+                ioQueue.dequeueAndWakeup( COND_DISK_REQ );
 
                 return OK;
             case INTERRUPT_IO:   // other I/O interrupts (not implemented)
@@ -302,6 +457,58 @@ public class Kernel
         return OK;
     }
 
+    // Reading the block size the disk was formatted with, or the one for a new disk
+    private static int formattedBlockSize( ) {
+        byte[] firstBlock = new byte[Disk.blockSize];
+        device.read( 0, firstBlock );
+        int blockSize = SuperBlock.formattedBlockSize( firstBlock );
+        if ( blockSize != -1 )
+            return blockSize;
+
+        blockSize = Integer.getInteger( BLOCK_SIZE_PROPERTY, BLOCK_SIZE );
+        if ( SuperBlock.validBlockSize( blockSize ) == false ) {
+            System.out.println( "threadOS: invalid block size " + blockSize + ", using " + BLOCK_SIZE );
+            blockSize = BLOCK_SIZE;
+        }
+        return blockSize;
+    }
+
+    // Creating the disk backend selected by -Dthreados.disk
+    private static BlockDevice newDevice( ) {
+        if ( "mapped".equals( System.getProperty( DISK_PROPERTY ) ) ) {
+            String image = System.getProperty( IMAGE_PROPERTY, "DISK" );
+            try {
+                return new MappedDisk( image, DISK_BLOCKS, Disk.blockSize );
+            } catch ( IOException e ) {
+                System.out.println( "threadOS: cannot map " + image + ", using the Disk thread: " + e );
+            }
+        }
+        Disk disk = new Disk( DISK_BLOCKS );
+        disk.start( );
+        ThreadedDisk threaded = new ThreadedDisk( disk, ioQueue, DISK_BLOCKS );
+        threaded.start( );
+        return threaded;
+    }
+
+    // Making the factory of the user threads. Thread.ofVirtual( ) is looked up at run time, so the kernel
+    // still builds and runs on a Java without virtual threads, where it uses platform threads
+    private static ThreadFactory newThreadFactory( ) {
+        if ( "virtual".equals( System.getProperty( THREADS_PROPERTY ) ) ) {
+            try {
+                Object builder = Thread.class.getMethod( "ofVirtual" ).invoke( null );
+                Method factory = Class.forName( "java.lang.Thread$Builder" ).getMethod( "factory" );
+                return ( ThreadFactory )factory.invoke( builder );
+            } catch ( ReflectiveOperationException e ) {
+                System.out.println( "threadOS: virtual threads are not supported, using platform threads" );
+            }
+        }
+        return new ThreadFactory( ) {
+            public Thread newThread( Runnable program ) {
+                return new Thread( program );
+            }
+        };
+    }
+
     // Spawning a new thread
     private static int sysExec( String args[] ) {
         String thrName = args[0]; // args[0] has a thread name
@@ -329,7 +536,7 @@ public class Kernel
                 thrObj = thrConst.newInstance( constructorArgs );
             }
             // instantiate a new thread of this object
-            Thread t = new Thread( (Runnable)thrObj );
+            Thread t = userThreads.newThread( (Runnable)thrObj );
 
             // add this thread into scheduler's circular list.
             TCB newTcb = scheduler.addThread( t );
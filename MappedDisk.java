@@ -0,0 +1,155 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/*
+ * Andrew Montgomery, Daniel Yakovlev
+ * Block device backed by the disk image file mapped into memory. Reads and writes copy straight between the
+ * caller's buffer and the mapping, so requests do not go through the Disk thread and callers never sleep on the
+ * I/O queue. The operating system writes the mapping back to the file, and sync forces it out. The image has the
+ * same layout as the one the ThreadOS Disk saves: the blocks one after the other. One mapping can hold at most
+ * 2 GB, so the image is mapped in segments of SEGMENT bytes and disks can be bigger than that.
+ */
+
+public class MappedDisk implements BlockDevice {
+    private final static int SEGMENT = 1 << 30;         // bytes in one mapping, a multiple of every block size
+
+    private final MappedByteBuffer[] image;             // the disk image file, one mapping per segment
+    private final long size;                            // the size of the image in bytes
+    private int segmentBlocks;                          // the number of blocks in a segment
+    private int blockSize;                              // the size of a block in bytes
+    private int blocks;                                 // the number of blocks on the disk
+
+    /*
+     * Constructor for the MappedDisk. The image file is created, or grown to hold every block, if it is smaller
+     * @Param fileName: The disk image file
+     * @Param blocks: The number of blocks on the disk
+     * @Param blockSize: The size of a block in bytes
+     */
+    public MappedDisk(String fileName, int blocks, int blockSize) throws IOException
+    {
+        size = (long) blocks * blockSize;
+        setBlockSize(blockSize);
+        try(RandomAccessFile file = new RandomAccessFile(fileName, "rw"))
+        {
+            if(file.length() < size)
+            {
+                file.setLength(size);
+            }
+            image = new MappedByteBuffer[(int)((size + SEGMENT - 1) / SEGMENT)];
+            for(int i = 0; i < image.length; i++)
+            {
+                long start = (long) i * SEGMENT;
+                image[i] = file.getChannel().map(FileChannel.MapMode.READ_WRITE, start,
+                        Math.min(SEGMENT, size - start));
+            }
+        }                                               // The mappings stay valid once the file is closed
+    }
+
+    public int blocks()
+    {
+        return blocks;
+    }
+
+    public void setBlockSize(int blockSize)
+    {
+        this.blockSize = blockSize;
+        blocks = (int)(size / blockSize);
+        segmentBlocks = SEGMENT / blockSize;
+    }
+
+    public boolean read(int blockId, byte[] buffer)
+    {
+        if(blockId < 0 || blockId >= blocks || buffer.length < blockSize)
+        {
+            return false;
+        }
+        segment(blockId).get(offset(blockId), buffer, 0, blockSize);  // Absolute, so threads do not share a position
+        return true;
+    }
+
+    public boolean write(int blockId, byte[] buffer)
+    {
+        if(blockId < 0 || blockId >= blocks || buffer.length < blockSize)
+        {
+            return false;
+        }
+        segment(blockId).put(offset(blockId), buffer, 0, blockSize);
+        return true;
+    }
+
+    public boolean readv(int[] blockIds, byte[][] buffers, int count)
+    {
+        if(!valid(blockIds, buffers, count))
+        {
+            return false;
+        }
+        for(int i = 0; i < count; i++)
+        {
+            segment(blockIds[i]).get(offset(blockIds[i]), buffers[i], 0, blockSize);
+        }
+        return true;
+    }
+
+    public boolean writev(int[] blockIds, byte[][] buffers, int count)
+    {
+        if(!valid(blockIds, buffers, count))
+        {
+            return false;
+        }
+        for(int i = 0; i < count; i++)
+        {
+            segment(blockIds[i]).put(offset(blockIds[i]), buffers[i], 0, blockSize);
+        }
+        return true;
+    }
+
+    public boolean sync()
+    {
+        for(int i = 0; i < image.length; i++)
+        {
+            image[i].force();
+        }
+        return true;
+    }
+
+    /*
+     * The operating system writes the mapped pages back in any order, so the only way to order two writes is to
+     * force the first one to the file
+     */
+    public boolean barrier()
+    {
+        return sync();
+    }
+
+    /*
+     * @Param blockId: A block of the disk
+     * @Return MappedByteBuffer: The mapping holding the block
+     */
+    private MappedByteBuffer segment(int blockId)
+    {
+        return image[blockId / segmentBlocks];
+    }
+
+    /*
+     * @Param blockId: A block of the disk
+     * @Return int: Where the block starts in its mapping
+     */
+    private int offset(int blockId)
+    {
+        return (blockId % segmentBlocks) * blockSize;
+    }
+
+    private boolean valid(int[] blockIds, byte[][] buffers, int count)
+    {
+        for(int i = 0; i < count; i++)
+        {
+            if(blockIds[i] < 0 || blockIds[i] >= blocks || buffers[i].length < blockSize)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Andrew Montgomery, Daniel Yakovlev
+ * Read-ahead thread for the block cache. The file system hands it the blocks a sequential reader is going to
+ * read next, and this thread loads them into the cache while the reader is still copying the blocks it asked
+ * for. Prefetching is only a hint: the caller never waits, and when the thread falls behind the oldest blocks
+ * are dropped, since the reader has most likely passed them already. The blocks wait in a fixed ring, so
+ * handing them over does not allocate.
+ */
+
+public class Prefetcher extends Thread {
+    private final static int MAX_PENDING = 64;         // Most blocks waiting to be loaded
+    private final static int BATCH = 16;               // Most blocks loaded with one vectored read
+
+    private BlockCache cache;                           // the cache the blocks are loaded into
+    private int[] pending;                              // ring of the blocks waiting to be loaded, oldest first
+    private int head;                                   // where the oldest block is in the ring
+    private int size;                                   // # blocks in the ring
+    private int[] batch;                                // the blocks being loaded, only used by this thread
+    private BlockCache target;                          // the cache batch is loaded into, only used by this thread
+
+    /*
+     * Constructor for the Prefetcher. start() must be called to start the thread
+     * @Param cache: The block cache the blocks are loaded into
+     */
+    public Prefetcher(BlockCache cache)
+    {
+        this.cache = cache;
+        pending = new int[MAX_PENDING];
+        head = 0;
+        size = 0;
+        batch = new int[BATCH];
+        setDaemon(true);
+    }
+
+    /*
+     * Method that moves the thread to a new cache, when the kernel replaces it. The blocks still waiting are
+     * dropped, since they were numbered for the old one
+     * @Param cache: The new block cache
+     */
+    public synchronized void setCache(BlockCache cache)
+    {
+        this.cache = cache;
+        size = 0;
+    }
+
+    /*
+     * Method that queues blocks to be loaded into the cache, and returns right away
+     * @Param blockIds: The disk blocks, they are copied so the caller can reuse the array
+     * @Param count: The number of blocks
+     * @Return boolean: Returns false if the count is invalid, otherwise true
+     */
+    public synchronized boolean prefetch(int[] blockIds, int count)
+    {
+        if(count < 0 || count > blockIds.length)
+        {
+            return false;
+        }
+
+        for(int i = 0; i < count; i++)
+        {
+            if(size == MAX_PENDING)                     // Drop the oldest block
+            {
+                head = (head + 1) % MAX_PENDING;
+                size--;
+            }
+            pending[(head + size) % MAX_PENDING] = blockIds[i];
+            size++;
+        }
+        if(count > 0)
+        {
+            notify();
+        }
+        return true;
+    }
+
+    /*
+     * Loads the queued blocks, up to BATCH at a time
+     */
+    public void run()
+    {
+        while(true)
+        {
+            int count = next();
+            target.prefetch(batch, count);
+        }
+    }
+
+    /*
+     * Method that takes the next blocks to load into batch, and the cache to load them into, waiting if there
+     * are none
+     * @Return int: The number of blocks taken
+     */
+    private synchronized int next()
+    {
+        while(size == 0)
+        {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+            }
+        }
+        int count = Math.min(size, BATCH);
+        for(int i = 0; i < count; i++)
+        {
+            batch[i] = pending[head];
+            head = (head + 1) % MAX_PENDING;
+        }
+        size -= count;
+        target = cache;
+        return count;
+    }
+}
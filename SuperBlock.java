@@ -0,0 +1,449 @@
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Andrew Montgomery, Daniel Yakovlev
+ * Class that represents the superblock of the file system.  The superblock is the first disk block and is
+ * used to hold the number of disk blocks, the number of inodes, and the location of the free block bitmap in
+ * the system. The bitmap has one bit per disk block (1 = in use) and is kept in memory as a long[], so
+ * allocating and freeing blocks does not touch the disk until the superblock is synced. The journal region
+ * follows the bitmap, and the data blocks follow the journal.
+ *
+ * The superblock also records the version of the on-disk format and the block size the disk was formatted with.
+ * The kernel reads the block size from the first Disk block before anything else, since every other block is
+ * addressed in it. Both are checked when the disk is mounted, and a disk in another format is formatted again.
+ * Version 1 had 16-bit block pointers and 32-byte inodes, and predates the version field, which it leaves 0.
+ * Version 2 has 32-bit block pointers, 64-byte inodes and triple indirect blocks. Version 3 can keep the data of
+ * a small file in its inode instead of the pointers. A version 2 disk has no such inodes, so it is mounted as it
+ * is and its superblock is rewritten as version 3.
+ *
+ * The bitmap is guarded by a ReentrantLock rather than by this object's monitor, since syncing it reads and writes
+ * blocks with the lock held, and a virtual thread doing I/O under a monitor pins its carrier.
+ */
+
+public class SuperBlock {
+    private final int defaultInodeBlocks = 64;
+    private final static int MAGIC = 0x46534233;        // Marks a disk formatted with a bitmap and a journal
+    private final static int VERSION = 3;               // The on-disk format this file system writes
+    private final static int OLDEST_VERSION = 2;        // The oldest format it can mount
+    private final static int MAX_BLOCK_SIZE = 65536;    // Largest block size, the smallest is Disk.blockSize
+    public int totalBlocks;                             //The number of disk blocks
+    public int inodeBlocks;                             //The number of inodes
+    public int bitmapStart;                             //The first block of the free block bitmap
+    public int bitmapBlocks;                            //The number of blocks used by the bitmap
+    public int journalStart;                            //The first block of the metadata journal
+    public int journalBlocks;                           //The number of blocks used by the journal
+    public int dataStart;                               //The first block that can hold file data
+    public int version;                                 //The version of the on-disk format
+    public int blockSize;                               //The size of a block in bytes
+
+    private long[] bitmap;                              //One bit per disk block, set when the block is in use
+    private boolean[] bitmapDirty;                      //Bitmap blocks that have changed since the last sync
+    private int freeCount;                              //The number of free blocks
+    private int nextFree;                               //Where the next search for a free block starts
+    private final ReentrantLock lock = new ReentrantLock();   //Guards the bitmap and the counts above
+
+    /*
+     * Constructor for the SuperBlock
+     * @Param diskSize: The number of blocks that can be supported by the system
+     */
+    public SuperBlock(int diskSize)
+    {
+        //read the superblock from disk
+        byte[] superBlock = BlockBuffers.block();
+        SysLib.cread(0, superBlock);
+        totalBlocks = SysLib.bytes2int(superBlock, 0);
+        inodeBlocks = SysLib.bytes2int(superBlock, 4);
+        bitmapStart = SysLib.bytes2int(superBlock, 8);
+        bitmapBlocks = SysLib.bytes2int(superBlock, 12);
+        dataStart = SysLib.bytes2int(superBlock, 16);
+        int magic = SysLib.bytes2int(superBlock, 20);
+        journalStart = SysLib.bytes2int(superBlock, 24);
+        journalBlocks = SysLib.bytes2int(superBlock, 28);
+        version = Math.max(1, SysLib.bytes2int(superBlock, 32));
+        blockSize = SysLib.bytes2int(superBlock, 36);
+
+        if(magic == MAGIC && !supported(version))
+        {
+            SysLib.cerr("threadOS: disk format version " + version + " is not supported, formatting\n");
+        }
+        if(totalBlocks == diskSize && inodeBlocks > 0 && magic == MAGIC && supported(version)
+                && blockSize == FileSystem.blockSize && bitmapStart >= 2
+                && journalStart == bitmapStart + bitmapBlocks && journalBlocks >= 3
+                && dataStart == journalStart + journalBlocks && dataStart < totalBlocks)
+        {
+            //disk contents are valid, load the bitmap
+            loadBitmap();
+            if(version != VERSION)
+            {
+                //an older disk is valid in this version too, so it is upgraded in place
+                version = VERSION;
+                superblock2bytes(superBlock);
+                SysLib.cwrite(0, superBlock);
+            }
+            return;
+        } else {
+            //need to format disk
+            totalBlocks = diskSize;
+            format(defaultInodeBlocks);
+        }
+    }
+
+    /*
+     * Method that finds the block size a disk was formatted with. The fields it needs are in the first Disk
+     * block, so it can be read before the block size is known
+     * @Param firstBlock: The first Disk.blockSize bytes of the disk
+     * @Return int: The block size, or -1 if the disk does not hold a version of the file system it can mount
+     */
+    public static int formattedBlockSize(byte[] firstBlock)
+    {
+        int blockSize = SysLib.bytes2int(firstBlock, 36);
+        if(SysLib.bytes2int(firstBlock, 20) != MAGIC || !supported(SysLib.bytes2int(firstBlock, 32))
+                || !validBlockSize(blockSize))
+        {
+            return -1;
+        }
+        return blockSize;
+    }
+
+    /*
+     * @Param version: A version of the on-disk format
+     * @Return boolean: Whether a disk in that format can be mounted
+     */
+    private static boolean supported(int version)
+    {
+        return version >= OLDEST_VERSION && version <= VERSION;
+    }
+
+    /*
+     * @Param blockSize: A block size in bytes
+     * @Return boolean: Whether a disk can be formatted with it: a power of 2 from Disk.blockSize to 64 KB
+     */
+    public static boolean validBlockSize(int blockSize)
+    {
+        return blockSize >= Disk.blockSize && blockSize <= MAX_BLOCK_SIZE && Integer.bitCount(blockSize) == 1;
+    }
+
+    /*
+     * This method is used to format all of the blocks. Sets all of the blocks to free
+     * @param nodeCount: The total number of Inodes in the file system
+     */
+    public void format(int nodeCount)
+    {
+           this.inodeBlocks = nodeCount;
+           this.version = VERSION;
+           this.blockSize = FileSystem.blockSize;
+           Inode node = new Inode();
+
+           for(int i = 0; i < inodeBlocks; i++)
+           {
+               node.flag = 0;
+               node.toDisk((short) i);
+           }
+
+           // The bitmap follows the inode blocks, then the journal, and the data blocks follow the journal
+           bitmapStart = (inodeBlocks / Inode.inodesPerBlock) + 2;
+           bitmapBlocks = (totalBlocks + FileSystem.blockSize * 8 - 1) / (FileSystem.blockSize * 8);
+           journalStart = bitmapStart + bitmapBlocks;
+           journalBlocks = journalSize();
+           dataStart = journalStart + journalBlocks;
+
+           bitmap = new long[(totalBlocks + 63) / 64];
+           bitmapDirty = new boolean[bitmapBlocks];
+           for(int i = 0; i < dataStart; i++)              // The superblock, inodes, bitmap and journal are in use
+           {
+               setBit(i);
+           }
+           for(int i = totalBlocks; i < bitmap.length * 64; i++)   // Bits past the end of the disk are never free
+           {
+               setBit(i);
+           }
+           freeCount = totalBlocks - dataStart;
+           nextFree = dataStart;
+           for(int i = 0; i < bitmapBlocks; i++)
+           {
+               bitmapDirty[i] = true;
+           }
+
+           this.sync();
+
+           // Empty the journal, so nothing from before the format is replayed. The journal is not cached
+           SysLib.rawwrite(journalStart, new byte[FileSystem.blockSize]);
+    }
+
+    /*
+     * Method that picks the size of the journal. It is big enough for one transaction to hold every metadata
+     * block (the superblock, the bitmap, every inode block with its indirect block, and the directory), up to
+     * the number of blocks one descriptor block can list, and never more than an eighth of the disk.
+     * @Return int: The number of blocks for the journal
+     */
+    private int journalSize()
+    {
+        int metadata = 1 + bitmapBlocks + (inodeBlocks + Inode.inodesPerBlock - 1) / Inode.inodesPerBlock
+                + inodeBlocks + (inodeBlocks * 64 + FileSystem.blockSize - 1) / FileSystem.blockSize;
+        int size = Math.min(metadata, (FileSystem.blockSize - 12) / 4) + 2;     // Plus the descriptor and commit blocks
+        return Math.max(3, Math.min(size, totalBlocks / 8));
+    }
+
+    /*
+     *  Method that syncs the superblock data to the first block in the disk, along with the bitmap blocks
+     *  that have changed. Used by format, everything else goes through the journal
+     */
+    public void sync()
+    {
+        lock.lock();
+        try {
+            byte[] blockData = BlockBuffers.block();
+            superblock2bytes(blockData);
+            SysLib.cwrite(0, blockData);
+
+            for(int i = 0; i < bitmapBlocks; i++)
+            {
+                if(bitmapDirty[i])
+                {
+                    bitmap2bytes(i, blockData);
+                    SysLib.cwrite(bitmapStart + i, blockData);
+                    bitmapDirty[i] = false;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     *  Method that adds the bitmap blocks that have changed to the running transaction of the journal. The
+     *  superblock itself only changes when the disk is formatted, so it is not part of transactions. The caller
+     *  must hold the journal's lock
+     *  @Param journal: The journal of the file system
+     */
+    public void sync(Journal journal)
+    {
+        lock.lock();
+        try {
+            for(int i = 0; i < bitmapBlocks; i++)
+            {
+                if(bitmapDirty[i])
+                {
+                    bitmap2bytes(i, journal.getBlock(bitmapStart + i));
+                    bitmapDirty[i] = false;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Method that allocates several blocks at once. Blocks are taken in runs of contiguous free blocks,
+     * starting with the first free block at or after the hint, so that blocks allocated together are laid
+     * out next to each other when possible.
+     * @Param hint: The block number the allocation should start near, -1 for no preference
+     * @Param count: The number of blocks wanted
+     * @Param blocks: Receives the allocated block numbers
+     * @Return int: The number of blocks allocated, less than count if the disk ran out of space
+     */
+    public int getFreeBlocks(int hint, int count, int[] blocks)
+    {
+        lock.lock();
+        try {
+            int allocated = 0;
+            int block = findFree((hint >= dataStart && hint < totalBlocks) ? hint : nextFree);
+
+            while(allocated < count && block != -1)
+            {
+                setBit(block);                                      // Take the free block, and keep going while the
+                blocks[allocated++] = block;                        // next one is free too
+                freeCount--;
+                nextFree = block + 1;
+
+                if(block + 1 < totalBlocks && !testBit(block + 1))
+                {
+                    block = block + 1;
+                } else {
+                    block = findFree(block + 1);
+                }
+            }
+            return allocated;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Method that returns a block to the free blocks.
+     * @Param blockNumber: The block number of the block being returned
+     * @Return boolean: returns true if the block was freed, otherwise returns false
+     */
+    public boolean returnBlock(int blockNumber)
+    {
+        lock.lock();
+        try {
+            if(blockNumber < dataStart || blockNumber >= totalBlocks || !testBit(blockNumber))
+                return false;
+
+            clearBit(blockNumber);
+            freeCount++;
+            if(blockNumber < nextFree)                      // Reuse low blocks first to keep the disk compact
+            {
+                nextFree = blockNumber;
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Method that returns several blocks to the free blocks at once.
+     * @Param blocks: The block numbers being returned
+     * @Param count: The number of entries of blocks to return
+     * @Return int: The number of blocks that were freed
+     */
+    public int returnBlocks(int[] blocks, int count)
+    {
+        lock.lock();
+        try {
+            int freed = 0;
+            for(int i = 0; i < count; i++)
+            {
+                if(returnBlock(blocks[i]))
+                {
+                    freed++;
+                }
+            }
+            return freed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * @Return int: The number of free blocks on the disk
+     */
+    public int getFreeBlockCount()
+    {
+        lock.lock();
+        try {
+            return freeCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Method that converts the superblock into the first disk block
+     * @Param blockData: Receives the block
+     */
+    private void superblock2bytes(byte[] blockData)
+    {
+        Arrays.fill(blockData, (byte) 0);                      // The buffer may hold an older block
+        SysLib.int2bytes(totalBlocks, blockData, 0);
+        SysLib.int2bytes(inodeBlocks, blockData, 4);
+        SysLib.int2bytes(bitmapStart, blockData, 8);
+        SysLib.int2bytes(bitmapBlocks, blockData, 12);
+        SysLib.int2bytes(dataStart, blockData, 16);
+        SysLib.int2bytes(MAGIC, blockData, 20);
+        SysLib.int2bytes(journalStart, blockData, 24);
+        SysLib.int2bytes(journalBlocks, blockData, 28);
+        SysLib.int2bytes(version, blockData, 32);
+        SysLib.int2bytes(blockSize, blockData, 36);
+    }
+
+    /*
+     * Method that converts one block of the bitmap into bytes, as big-endian longs
+     * @Param i: The bitmap block
+     * @Param blockData: Receives the block
+     */
+    private void bitmap2bytes(int i, byte[] blockData)
+    {
+        int wordsPerBlock = FileSystem.blockSize / 8;
+        for(int j = 0; j < wordsPerBlock; j++)
+        {
+            long word = (i * wordsPerBlock + j < bitmap.length) ? bitmap[i * wordsPerBlock + j] : -1L;
+            SysLib.int2bytes((int)(word >>> 32), blockData, j * 8);
+            SysLib.int2bytes((int)word, blockData, j * 8 + 4);
+        }
+    }
+
+    /*
+     * Method that reads the bitmap blocks into memory and counts the free blocks
+     */
+    private void loadBitmap()
+    {
+        byte[] blockData = BlockBuffers.block();
+        int wordsPerBlock = FileSystem.blockSize / 8;
+
+        bitmap = new long[(totalBlocks + 63) / 64];
+        bitmapDirty = new boolean[bitmapBlocks];
+        for(int i = 0; i < bitmapBlocks; i++)
+        {
+            SysLib.cread(bitmapStart + i, blockData);
+            for(int j = 0; j < wordsPerBlock && i * wordsPerBlock + j < bitmap.length; j++)
+            {
+                bitmap[i * wordsPerBlock + j] = ((long)SysLib.bytes2int(blockData, j * 8) << 32)
+                        | (SysLib.bytes2int(blockData, j * 8 + 4) & 0xffffffffL);
+            }
+        }
+
+        freeCount = 0;
+        for(int i = 0; i < bitmap.length; i++)
+        {
+            freeCount += Long.bitCount(~bitmap[i]);
+        }
+        nextFree = dataStart;
+    }
+
+    /*
+     * Method that finds the first free block at or after a block number, wrapping around to the start of the
+     * data blocks. Whole words of the bitmap are skipped at a time.
+     * @Param from: The block number to start searching at
+     * @Return int: The free block that was found, or -1 if there are no free blocks
+     */
+    private int findFree(int from)
+    {
+        if(freeCount == 0)
+            return -1;
+        if(from >= totalBlocks)
+            from = dataStart;
+
+        int word = from >>> 6;
+        long free = ~bitmap[word] & (-1L << (from & 63));       // Ignore the blocks before from in the first word
+        for(int i = 0; i <= bitmap.length; i++)
+        {
+            if(free != 0)
+            {
+                return (word << 6) + Long.numberOfTrailingZeros(free);
+            }
+            word = (word + 1) % bitmap.length;
+            free = ~bitmap[word];
+        }
+        return -1;
+    }
+
+    private boolean testBit(int block)
+    {
+        return (bitmap[block >>> 6] & (1L << (block & 63))) != 0;
+    }
+
+    private void setBit(int block)
+    {
+        bitmap[block >>> 6] |= 1L << (block & 63);
+        markDirty(block);
+    }
+
+    private void clearBit(int block)
+    {
+        bitmap[block >>> 6] &= ~(1L << (block & 63));
+        markDirty(block);
+    }
+
+    private void markDirty(int block)
+    {
+        int bitmapBlock = block / (FileSystem.blockSize * 8);
+        if(bitmapBlock < bitmapBlocks)
+        {
+            bitmapDirty[bitmapBlock] = true;
+        }
+    }
+}
@@ -2,6 +2,7 @@
  * Andrew Montgomery, Daniel Yakovlev
  */
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 public class SysLib {
     public static int exec( String args[] ) {
@@ -84,6 +85,50 @@ public class SysLib {
                 Kernel.CSYNC, 0, null );
     }
 
+    public static int rawbarrier( ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+                Kernel.RAWBARRIER, 0, null );
+    }
+
+    public static int cstats( long[] b ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+                Kernel.CSTATS, 0, b );
+    }
+
+    public static int creadv( int[] blkNumbers, int count, byte[] b ) {
+        Object[] o = { blkNumbers, b };
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+                Kernel.CREADV, count, o );
+    }
+
+    public static int cwritev( int[] blkNumbers, int count, byte[] b ) {
+        Object[] o = { blkNumbers, b };
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+                Kernel.CWRITEV, count, o );
+    }
+
+    public static int rawreadv( int[] blkNumbers, int count, byte[][] b ) {
+        Object[] o = { blkNumbers, b };
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+                Kernel.RAWREADV, count, o );
+    }
+
+    public static int rawwritev( int[] blkNumbers, int count, byte[][] b ) {
+        Object[] o = { blkNumbers, b };
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+                Kernel.RAWWRITEV, count, o );
+    }
+
+    public static int cprefetch( int[] blkNumbers, int count ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+                Kernel.CPREFETCH, count, blkNumbers );
+    }
+
+    public static int cblocksize( int blockSize ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+                Kernel.CBLOCKSIZE, blockSize, null );
+    }
+
     public static String[] stringToArgs( String s ) {
         StringTokenizer token = new StringTokenizer( s," " );
         String[] progArgs = new String[ token.countTokens( ) ];
@@ -124,6 +169,11 @@ public class SysLib {
         return Kernel.interrupt(1, 18, fd, null);
     }
 
+    public static int format(int fd, int blockSize)
+    {
+        return Kernel.interrupt(1, 18, fd, blockSize);
+    }
+
     public static int open(String filename, String mode)
     {
         String[] s = {filename, mode};
@@ -140,6 +190,40 @@ public class SysLib {
         return Kernel.interrupt(1, 9, blockNumber, buffer);
     }
 
+    public static int pread(int fd, byte[] buffer, int offset)
+    {
+        Object[] o = {buffer, offset};
+        return Kernel.interrupt(1, 29, fd, o);
+    }
+
+    public static int pwrite(int fd, byte[] buffer, int offset)
+    {
+        Object[] o = {buffer, offset};
+        return Kernel.interrupt(1, 30, fd, o);
+    }
+
+    public static CompletableFuture<Integer> readAsync(int fd, byte[] buffer, int offset)
+    {
+        CompletableFuture<Integer> future = new CompletableFuture<Integer>();
+        AsyncIO.Request request = new AsyncIO.Request(buffer, offset, future);
+        if(Kernel.interrupt(1, 32, fd, request) != 0)
+        {
+            future.complete(-1);
+        }
+        return future;
+    }
+
+    public static CompletableFuture<Integer> writeAsync(int fd, byte[] buffer, int offset)
+    {
+        CompletableFuture<Integer> future = new CompletableFuture<Integer>();
+        AsyncIO.Request request = new AsyncIO.Request(buffer, offset, future);
+        if(Kernel.interrupt(1, 33, fd, request) != 0)
+        {
+            future.complete(-1);
+        }
+        return future;
+    }
+
     public static int seek(int fd, int offset, int whence)
     {
         int[] i = {offset, whence};
@@ -151,6 +235,28 @@ public class SysLib {
         return Kernel.interrupt(1, 16, fd, null);
     }
 
+    public static int fallocate(int fd, int length)
+    {
+        int[] i = {length};
+        return Kernel.interrupt(1, 20, fd, i);
+    }
+
+    public static int mkdir(String path)
+    {
+        return Kernel.interrupt(1, 21, 0, path);
+    }
+
+    public static int rmdir(String path)
+    {
+        return Kernel.interrupt(1, 22, 0, path);
+    }
+
+    public static int readdir(String path, StringBuffer names)
+    {
+        Object[] o = {path, names};
+        return Kernel.interrupt(1, 23, 0, o);
+    }
+
     public static int delete(String filename)
     {
         return Kernel.interrupt(1, 19, 0, filename);
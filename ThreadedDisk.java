@@ -0,0 +1,322 @@
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+
+/*
+ * Andrew Montgomery, Daniel Yakovlev
+ * Block device backed by the ThreadOS Disk thread. The Disk takes one request at a time, so requests wait in a
+ * queue ordered by block number and this thread, the dispatcher, hands them to the Disk in C-LOOK order: the
+ * next request is the one with the lowest block number after the last block served, wrapping around to the
+ * lowest block once there is nothing further along. Every request has its own completion, so a thread only waits
+ * for its own I/O, and only the dispatcher sleeps on the kernel's I/O queue. The blocks of a vectored request are
+ * queued together, so the dispatcher can serve them in one sweep. A block can be several Disk blocks long, then
+ * the dispatcher moves its Disk blocks one after the other through a buffer of its own. A thread waits for its
+ * request on a latch instead of a monitor, so a virtual thread waiting for the disk is parked and frees its
+ * carrier thread for other user threads.
+ */
+
+public class ThreadedDisk extends Thread implements BlockDevice {
+    private final static int READ = 0;
+    private final static int WRITE = 1;
+    private final static int SYNC = 2;
+
+    private Disk disk;                                  // the disk thread
+    private SyncQueue ioQueue;                          // where the dispatcher waits, woken up by disk interrupts
+    private int diskBlocks;                             // the number of Disk blocks on the disk
+    private int blocks;                                 // the number of blocks on the disk
+    private int diskBlocksPerBlock;                     // the number of Disk blocks in a block
+    private byte[] diskBlock;                           // one Disk block, only used by the dispatcher
+
+    private TreeMap<Integer, ArrayDeque<Request>> pending;  // block number -> requests for it, oldest first
+    private ArrayDeque<Request> syncs;                  // sync requests, served before the block requests
+    private int head;                                   // the block the disk served last
+
+    /*
+     * One disk request and its completion
+     */
+    private static class Request {
+        final int command;                              // READ, WRITE or SYNC
+        final int blockId;
+        final byte[] buffer;
+        private final CountDownLatch done = new CountDownLatch(1);  // released once the request is served
+
+        Request(int command, int blockId, byte[] buffer)
+        {
+            this.command = command;
+            this.blockId = blockId;
+            this.buffer = buffer;
+        }
+
+        void complete()
+        {
+            done.countDown();
+        }
+
+        void await()
+        {
+            boolean interrupted = false;
+            while(true)
+            {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;                 // The request is already queued, so keep waiting
+                }
+            }
+            if(interrupted)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /*
+     * Constructor for the ThreadedDisk. The disk thread must already be started, and start() must be called
+     * to start the dispatcher
+     * @Param disk: The disk thread
+     * @Param ioQueue: The kernel's I/O queue
+     * @Param blocks: The number of Disk blocks on the disk, the device starts with blocks of Disk.blockSize
+     */
+    public ThreadedDisk(Disk disk, SyncQueue ioQueue, int blocks)
+    {
+        this.disk = disk;
+        this.ioQueue = ioQueue;
+        this.diskBlocks = blocks;
+        this.blocks = blocks;
+        diskBlocksPerBlock = 1;
+        diskBlock = new byte[Disk.blockSize];
+        pending = new TreeMap<Integer, ArrayDeque<Request>>();
+        syncs = new ArrayDeque<Request>();
+        head = -1;
+        setDaemon(true);
+    }
+
+    public int blocks()
+    {
+        return blocks;
+    }
+
+    public synchronized void setBlockSize(int blockSize)
+    {
+        diskBlocksPerBlock = blockSize / Disk.blockSize;
+        blocks = diskBlocks / diskBlocksPerBlock;
+    }
+
+    /*
+     * @Return int: The size of a block in bytes
+     */
+    private int blockSize()
+    {
+        return diskBlocksPerBlock * Disk.blockSize;
+    }
+
+    public boolean read(int blockId, byte[] buffer)
+    {
+        if(blockId < 0 || blockId >= blocks || buffer.length < blockSize())
+        {
+            return false;
+        }
+        submit(new Request(READ, blockId, buffer));
+        return true;
+    }
+
+    public boolean write(int blockId, byte[] buffer)
+    {
+        if(blockId < 0 || blockId >= blocks || buffer.length < blockSize())
+        {
+            return false;
+        }
+        submit(new Request(WRITE, blockId, buffer));
+        return true;
+    }
+
+    public boolean readv(int[] blockIds, byte[][] buffers, int count)
+    {
+        return submitAll(READ, blockIds, buffers, count);
+    }
+
+    public boolean writev(int[] blockIds, byte[][] buffers, int count)
+    {
+        return submitAll(WRITE, blockIds, buffers, count);
+    }
+
+    public boolean sync()
+    {
+        submit(new Request(SYNC, -1, null));
+        return true;
+    }
+
+    /*
+     * The Disk keeps its blocks in memory and only writes its image file as a whole, at sync, so the writes that
+     * have returned are already in the order they were made
+     */
+    public boolean barrier()
+    {
+        return true;
+    }
+
+    /*
+     * The dispatcher: serves the queued requests one at a time, in C-LOOK order
+     */
+    public void run()
+    {
+        while(true)
+        {
+            Request request = next();
+            serve(request);
+            request.complete();
+        }
+    }
+
+    /*
+     * Method that queues a request and waits until the dispatcher has served it
+     * @Param request: The request
+     */
+    private void submit(Request request)
+    {
+        synchronized(this)
+        {
+            enqueue(request);
+            notify();
+        }
+        request.await();
+    }
+
+    /*
+     * Method that queues the blocks of a vectored request all at once and waits until every one is served
+     * @Param command: READ or WRITE
+     * @Param blockIds: The blocks
+     * @Param buffers: One buffer per block
+     * @Param count: The number of blocks
+     * @Return boolean: Returns false if a block number is invalid or a buffer is too short, then nothing is queued
+     */
+    private boolean submitAll(int command, int[] blockIds, byte[][] buffers, int count)
+    {
+        for(int i = 0; i < count; i++)
+        {
+            if(blockIds[i] < 0 || blockIds[i] >= blocks || buffers[i].length < blockSize())
+            {
+                return false;
+            }
+        }
+
+        Request[] requests = new Request[count];
+        synchronized(this)
+        {
+            for(int i = 0; i < count; i++)
+            {
+                requests[i] = new Request(command, blockIds[i], buffers[i]);
+                enqueue(requests[i]);
+            }
+            notify();
+        }
+        for(int i = 0; i < count; i++)
+        {
+            requests[i].await();
+        }
+        return true;
+    }
+
+    /*
+     * Method that adds a request to the queue. The caller must hold the lock
+     * @Param request: The request
+     */
+    private void enqueue(Request request)
+    {
+        if(request.command == SYNC)
+        {
+            syncs.addLast(request);
+        } else {
+            ArrayDeque<Request> requests = pending.get(request.blockId);
+            if(requests == null)
+            {
+                requests = new ArrayDeque<Request>();
+                pending.put(request.blockId, requests);
+            }
+            requests.addLast(request);                  // Requests for the same block keep their order
+        }
+    }
+
+    /*
+     * Method that takes the next request to serve, waiting if there is none
+     * @Return Request: The request
+     */
+    private synchronized Request next()
+    {
+        while(syncs.isEmpty() && pending.isEmpty())
+        {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+            }
+        }
+        if(!syncs.isEmpty())
+        {
+            return syncs.removeFirst();
+        }
+
+        Map.Entry<Integer, ArrayDeque<Request>> entry = pending.higherEntry(head);
+        if(entry == null)                               // Nothing further along, go back to the lowest block
+        {
+            entry = pending.firstEntry();
+        }
+        Request request = entry.getValue().removeFirst();
+        if(entry.getValue().isEmpty())
+        {
+            pending.remove(entry.getKey());
+        }
+        head = request.blockId;
+        return request;
+    }
+
+    /*
+     * Method that hands a request to the Disk, one Disk block at a time, and waits until the Disk has finished it
+     * @Param request: The request
+     */
+    private void serve(Request request)
+    {
+        if(request.command == SYNC)
+        {
+            while(disk.sync() == false)
+                ioQueue.enqueueAndSleep(Kernel.COND_DISK_REQ);
+            finish();
+            return;
+        }
+
+        int perBlock = diskBlocksPerBlock;
+        for(int i = 0; i < perBlock; i++)
+        {
+            int blockId = request.blockId * perBlock + i;
+            byte[] buffer = (perBlock == 1) ? request.buffer : diskBlock;     // A whole block goes straight through
+            if(request.command == READ)
+            {
+                while(disk.read(blockId, buffer) == false)
+                    ioQueue.enqueueAndSleep(Kernel.COND_DISK_REQ);
+                finish();
+                if(buffer == diskBlock)
+                {
+                    System.arraycopy(diskBlock, 0, request.buffer, i * Disk.blockSize, Disk.blockSize);
+                }
+            } else {
+                if(buffer == diskBlock)
+                {
+                    System.arraycopy(request.buffer, i * Disk.blockSize, diskBlock, 0, Disk.blockSize);
+                }
+                while(disk.write(blockId, buffer) == false)
+                    ioQueue.enqueueAndSleep(Kernel.COND_DISK_REQ);
+                finish();
+            }
+        }
+    }
+
+    /*
+     * Method that waits until the Disk has finished the request it was handed
+     */
+    private void finish()
+    {
+        while(disk.testAndResetReady() == false)
+            ioQueue.enqueueAndSleep(Kernel.COND_DISK_FIN);
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Andrew Montgomery, Daniel Yakovlev
+ * In-memory stand-in for the ThreadOS Disk, used by the benchmarks. Every request completes right away, so the
+ * benchmarks measure the file system and the block cache instead of the simulated disk delay.
+ */
+
+public class Disk extends Thread {
+    public static final int blockSize = 512;
+    private byte[][] data;                              // contents of every block
+
+    private long reads;                                 // # blocks read
+    private long writes;                                // # blocks written
+
+    public Disk(int totalBlocks)
+    {
+        data = new byte[totalBlocks][blockSize];
+        setDaemon(true);
+    }
+
+    public synchronized boolean read(int blockId, byte buffer[])
+    {
+        if(blockId < 0 || blockId >= data.length)     // The real Disk would stay busy forever
+        {
+            throw new IllegalArgumentException("wrong blockId " + blockId);
+        }
+        System.arraycopy(data[blockId], 0, buffer, 0, blockSize);
+        reads++;
+        return true;
+    }
+
+    public synchronized boolean write(int blockId, byte buffer[])
+    {
+        if(blockId < 0 || blockId >= data.length)     // The real Disk would stay busy forever
+        {
+            throw new IllegalArgumentException("wrong blockId " + blockId);
+        }
+        System.arraycopy(buffer, 0, data[blockId], 0, blockSize);
+        writes++;
+        return true;
+    }
+
+    public boolean sync()
+    {
+        return true;
+    }
+
+    public boolean testAndResetReady()
+    {
+        return true;
+    }
+
+    public boolean testReady()
+    {
+        return true;
+    }
+
+    public synchronized long getReads()
+    {
+        return reads;
+    }
+
+    public synchronized long getWrites()
+    {
+        return writes;
+    }
+
+    public void run()
+    {
+    }
+}
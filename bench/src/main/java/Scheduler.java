@@ -0,0 +1,54 @@
+/*
+ * Andrew Montgomery, Daniel Yakovlev
+ * Stand-in for the ThreadOS Scheduler, used by the benchmarks. Every benchmark thread runs as part of one
+ * ThreadOS thread, so they all share its file descriptors. This lets several threads use the same
+ * FileTableEntry.
+ */
+
+public class Scheduler extends Thread {
+    private final static int maxThreads = 10000;
+    private TCB tcb;                                    // the ThreadOS thread the benchmark threads belong to
+    private int nextTid;
+
+    public Scheduler()
+    {
+        tcb = new TCB(null, 0, -1);
+        nextTid = 1;
+        setDaemon(true);
+    }
+
+    public int getMaxThreads()
+    {
+        return maxThreads;
+    }
+
+    public TCB getMyTcb()
+    {
+        return tcb;
+    }
+
+    public synchronized TCB addThread(Thread t)
+    {
+        TCB newTcb = new TCB(t, nextTid++, tcb.getTid());
+        t.start();
+        return newTcb;
+    }
+
+    public boolean deleteThread()
+    {
+        return true;
+    }
+
+    public void sleepThread(int milliseconds)
+    {
+        try {
+            Thread.sleep(milliseconds);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void run()
+    {
+    }
+}
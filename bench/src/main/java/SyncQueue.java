@@ -0,0 +1,35 @@
+/*
+ * Andrew Montgomery, Daniel Yakovlev
+ * Stand-in for the ThreadOS SyncQueue, used by the benchmarks. The in-memory Disk never makes a thread wait,
+ * so this is only used by join and exit.
+ */
+
+public class SyncQueue {
+    public SyncQueue()
+    {
+    }
+
+    public SyncQueue(int condMax)
+    {
+    }
+
+    public synchronized int enqueueAndSleep(int condition)
+    {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return 0;
+    }
+
+    public synchronized void dequeueAndWakeup(int condition)
+    {
+        notifyAll();
+    }
+
+    public synchronized void dequeueAndWakeup(int condition, int tid)
+    {
+        notifyAll();
+    }
+}
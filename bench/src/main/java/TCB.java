@@ -0,0 +1,80 @@
+/*
+ * Andrew Montgomery, Daniel Yakovlev
+ * Stand-in for the ThreadOS TCB, used by the benchmarks. Holds the file descriptor table.
+ */
+
+public class TCB {
+    private Thread thread;
+    private int tid;
+    private int pid;
+    private boolean terminated;
+    public FileTableEntry ftEnt[];                      // file descriptors 3 and up
+
+    public TCB(Thread newThread, int myTid, int parentTid)
+    {
+        thread = newThread;
+        tid = myTid;
+        pid = parentTid;
+        terminated = false;
+        ftEnt = new FileTableEntry[32];
+    }
+
+    public synchronized Thread getThread()
+    {
+        return thread;
+    }
+
+    public synchronized int getTid()
+    {
+        return tid;
+    }
+
+    public synchronized int getPid()
+    {
+        return pid;
+    }
+
+    public synchronized boolean setTerminated()
+    {
+        terminated = true;
+        return terminated;
+    }
+
+    public synchronized boolean getTerminated()
+    {
+        return terminated;
+    }
+
+    public synchronized int getFd(FileTableEntry entry)
+    {
+        if(entry == null)
+        {
+            return -1;
+        }
+        for(int i = 3; i < ftEnt.length; i++)
+        {
+            if(ftEnt[i] == null)
+            {
+                ftEnt[i] = entry;
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public synchronized FileTableEntry returnFd(int fd)
+    {
+        if(fd < 3 || fd >= ftEnt.length)
+        {
+            return null;
+        }
+        FileTableEntry entry = ftEnt[fd];
+        ftEnt[fd] = null;
+        return entry;
+    }
+
+    public synchronized FileTableEntry getFtEnt(int fd)
+    {
+        return (fd >= 3 && fd < ftEnt.length) ? ftEnt[fd] : null;
+    }
+}
@@ -0,0 +1,105 @@
+package fsbench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Andrew Montgomery, Daniel Yakovlev
+ * Several threads using one file descriptor, so they all go through the same FileTableEntry. Every thread
+ * seeks to its own random offset and reads or writes one block. The durable writers also sync after every
+ * write, so concurrent syncs share commits.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContentionBenchmark {
+    private static final int FILE_SIZE = 64 * 1024;
+    private static final int OFFSETS = 1024;
+
+    private int fd;                                     // shared by every thread
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        byte[] buffer = new byte[512];
+        int[] offsets = new int[OFFSETS];
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            Random random = new Random(Thread.currentThread().getId());
+            for (int i = 0; i < OFFSETS; i++) {
+                offsets[i] = random.nextInt(FILE_SIZE / 512) * 512;
+            }
+        }
+
+        int nextOffset() {
+            return offsets[next++ & (OFFSETS - 1)];
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ThreadOS.boot();
+        fd = ThreadOS.check(ThreadOS.open("shared", "w+"), "open");
+        ThreadOS.check(ThreadOS.write(fd, new byte[FILE_SIZE]), "write");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ThreadOS.close(fd);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int read(ThreadState state) {
+        ThreadOS.seek(fd, state.nextOffset(), ThreadOS.SEEK_SET);
+        return ThreadOS.read(fd, state.buffer);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int write(ThreadState state) {
+        ThreadOS.seek(fd, state.nextOffset(), ThreadOS.SEEK_SET);
+        return ThreadOS.write(fd, state.buffer);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public int durableWrite(ThreadState state) {
+        ThreadOS.pwrite(fd, state.buffer, state.nextOffset());
+        return ThreadOS.sync();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public int mixedRead(ThreadState state) {
+        return read(state);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public int mixedWrite(ThreadState state) {
+        return write(state);
+    }
+}
@@ -0,0 +1,84 @@
+package fsbench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Andrew Montgomery, Daniel Yakovlev
+ * Name lookups and small-file churn: Directory.namei and open/close over a tree of files spread across a few
+ * directories, and create/write/close/delete of a small file. The disk is formatted with room for the largest
+ * tree whatever the tree size, so every size runs on the same layout.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetadataBenchmark {
+    private static final int DIRECTORIES = 4;
+    private static final int MAX_FILES = 4096;
+    private static final int INODES = MAX_FILES + 64;   // the tree, its directories, "/" and the churn file
+    private static final int BLOCK_SIZE = 4096;
+    private static final int FS_BLOCKS = 2 * MAX_FILES; // a data block per file, and room for the journal, the
+                                                        // inodes and the directory file
+    private static final int DISK_BLOCKS = FS_BLOCKS * (BLOCK_SIZE / 512);  // in 512-byte Disk blocks
+
+    @Param({"48", "512", "4096"})
+    int files;                                          // # files in the tree
+
+    private String[] names;
+    private Object directory;
+    private byte[] small;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ThreadOS.boot("threaded", BLOCK_SIZE, DISK_BLOCKS);
+        ThreadOS.check(ThreadOS.format(INODES), "format");
+        for (int i = 0; i < DIRECTORIES; i++) {
+            ThreadOS.check(ThreadOS.mkdir("/dir" + i), "mkdir");
+        }
+
+        small = new byte[100];
+        names = new String[files];
+        for (int i = 0; i < files; i++) {
+            names[i] = "/dir" + (i % DIRECTORIES) + "/file" + i;
+            int fd = ThreadOS.check(ThreadOS.open(names[i], "w"), "create");
+            ThreadOS.checkAll(ThreadOS.write(fd, small), small.length, "write");
+            ThreadOS.close(fd);
+        }
+        directory = ThreadOS.directory();
+    }
+
+    @Benchmark
+    public short namei() {
+        return ThreadOS.namei(directory, names[next++ % files]);
+    }
+
+    @Benchmark
+    public int openClose() {
+        int fd = ThreadOS.open(names[next++ % files], "r");
+        return ThreadOS.close(fd);
+    }
+
+    @Benchmark
+    public int createDelete() {
+        int fd = ThreadOS.check(ThreadOS.open("/dir0/churn", "w"), "create");
+        ThreadOS.checkAll(ThreadOS.write(fd, small), small.length, "write");
+        ThreadOS.close(fd);
+        return ThreadOS.delete("/dir0/churn");
+    }
+}
@@ -0,0 +1,123 @@
+package fsbench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Andrew Montgomery, Daniel Yakovlev
+ * Sequential and random reads and writes of one open file, through SysLib read, write and seek, and random
+ * reads and writes through pread and pwrite. The file uses both direct and indirect blocks and is twice the
+ * size of the block cache at every block size, so both disk backends are exercised and the block sizes are
+ * compared on the same share of cache misses.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadWriteBenchmark {
+    private static final int OFFSETS = 1024;            // # precomputed random offsets, a power of 2
+
+    @Param({"512", "4096"})
+    int chunk;                                          // bytes per read or write
+
+    @Param({"threaded", "mapped"})
+    String device;                                      // disk backend
+
+    @Param({"512", "4096"})
+    int blockSize;                                      // file system block size the disk is formatted with
+
+    private int fileSize;                               // 2 * ThreadOS.CACHE_BLOCKS blocks, past the 11 direct blocks
+    private int fd;
+    private byte[] buffer;
+    private int[] offsets;                              // random chunk-aligned offsets in the file
+    private int next;                                   // next entry of offsets
+    private int position;                               // seek pointer of the sequential benchmarks
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ThreadOS.boot(device, blockSize);
+        fileSize = 2 * ThreadOS.CACHE_BLOCKS * blockSize;
+        fd = ThreadOS.check(ThreadOS.open("bench", "w+"), "open");
+        byte[] data = new byte[fileSize];
+        new Random(42).nextBytes(data);
+        ThreadOS.check(ThreadOS.write(fd, data), "write");
+        ThreadOS.seek(fd, 0, ThreadOS.SEEK_SET);
+
+        buffer = new byte[chunk];
+        offsets = new int[OFFSETS];
+        Random random = new Random(7);
+        for (int i = 0; i < OFFSETS; i++) {
+            offsets[i] = random.nextInt(fileSize / chunk) * chunk;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ThreadOS.close(fd);
+        long[] stats = ThreadOS.cacheStats();           // Shows how much of the run went to the disk
+        System.out.println("block cache: " + stats[0] + " hits, " + stats[1] + " misses");
+    }
+
+    @Benchmark
+    public int sequentialRead() {
+        if (position + chunk > fileSize) {
+            position = ThreadOS.seek(fd, 0, ThreadOS.SEEK_SET);
+        }
+        int read = ThreadOS.read(fd, buffer);
+        position += read;
+        return read;
+    }
+
+    @Benchmark
+    public int sequentialWrite() {
+        if (position + chunk > fileSize) {
+            position = ThreadOS.seek(fd, 0, ThreadOS.SEEK_SET);
+        }
+        int written = ThreadOS.write(fd, buffer);
+        position += written;
+        return written;
+    }
+
+    @Benchmark
+    public int randomRead() {
+        ThreadOS.seek(fd, offsets[next++ & (OFFSETS - 1)], ThreadOS.SEEK_SET);
+        return ThreadOS.read(fd, buffer);
+    }
+
+    @Benchmark
+    public int randomWrite() {
+        ThreadOS.seek(fd, offsets[next++ & (OFFSETS - 1)], ThreadOS.SEEK_SET);
+        return ThreadOS.write(fd, buffer);
+    }
+
+    @Benchmark
+    public int randomPread() {
+        return ThreadOS.pread(fd, buffer, offsets[next++ & (OFFSETS - 1)]);
+    }
+
+    @Benchmark
+    public int randomPwrite() {
+        return ThreadOS.pwrite(fd, buffer, offsets[next++ & (OFFSETS - 1)]);
+    }
+
+    @Benchmark
+    public int seek() {
+        return ThreadOS.seek(fd, offsets[next++ & (OFFSETS - 1)], ThreadOS.SEEK_SET);
+    }
+}
@@ -0,0 +1,267 @@
+package fsbench;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+/*
+ * Andrew Montgomery, Daniel Yakovlev
+ * Bridge from the benchmarks to ThreadOS. The file system is in the default package, which JMH benchmarks cannot
+ * be in and which other packages cannot import, so the syscalls are reached through method handles. The handles
+ * are static final, so the JIT inlines them and the benchmarks measure the same calls a ThreadOS program makes.
+ */
+final class ThreadOS {
+    static final int SEEK_SET = 0;
+    static final int SEEK_CUR = 1;
+    static final int SEEK_END = 2;
+    static final int DISK_BLOCKS = 8192;                // 4 MB, room for the biggest benchmark file and its metadata
+    static final int CACHE_BLOCKS = 64;                 // # blocks held by the kernel's block cache, set at boot
+
+    private static final MethodHandle BOOT = sysLib("boot", int.class);
+    private static final MethodHandle FORMAT = sysLib("format", int.class, int.class);
+    private static final MethodHandle OPEN = sysLib("open", int.class, String.class, String.class);
+    private static final MethodHandle READ = sysLib("read", int.class, int.class, byte[].class);
+    private static final MethodHandle WRITE = sysLib("write", int.class, int.class, byte[].class);
+    private static final MethodHandle PREAD = sysLib("pread", int.class, int.class, byte[].class, int.class);
+    private static final MethodHandle PWRITE = sysLib("pwrite", int.class, int.class, byte[].class, int.class);
+    private static final MethodHandle SEEK = sysLib("seek", int.class, int.class, int.class, int.class);
+    private static final MethodHandle FSIZE = sysLib("fsize", int.class, int.class);
+    private static final MethodHandle CLOSE = sysLib("close", int.class, int.class);
+    private static final MethodHandle DELETE = sysLib("delete", int.class, String.class);
+    private static final MethodHandle MKDIR = sysLib("mkdir", int.class, String.class);
+    private static final MethodHandle SYNC = sysLib("sync", int.class);
+    private static final MethodHandle CSTATS = sysLib("cstats", int.class, long[].class);
+    private static final MethodHandle NAMEI = namei();
+
+    private ThreadOS() {
+    }
+
+    /*
+     * Boots ThreadOS on a fresh in-memory disk, which the file system formats
+     */
+    static void boot() {
+        check(invoke(BOOT), "boot");
+    }
+
+    /*
+     * Boots ThreadOS with the given disk backend, "threaded" or "mapped", and block size, on a disk of DISK_BLOCKS
+     * Disk blocks and a cache of CACHE_BLOCKS blocks. The mapped disk image is a new temporary file, so the file
+     * system formats it with that block size
+     */
+    static void boot(String device, int blockSize) {
+        boot(device, blockSize, DISK_BLOCKS);
+    }
+
+    /*
+     * Boots ThreadOS like boot(device, blockSize), on a disk of diskBlocks Disk blocks
+     */
+    static void boot(String device, int blockSize, int diskBlocks) {
+        System.setProperty("threados.cache.blocks", Integer.toString(CACHE_BLOCKS));
+        System.setProperty("threados.disk", device);
+        System.setProperty("threados.disk.blocks", Integer.toString(diskBlocks));
+        System.setProperty("threados.disk.blockSize", Integer.toString(blockSize));
+        if (device.equals("mapped")) {
+            try {
+                File image = File.createTempFile("threados", ".disk");
+                image.deleteOnExit();
+                System.setProperty("threados.disk.image", image.getPath());
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        boot();
+    }
+
+    static int format(int files) {
+        try {
+            return (int) FORMAT.invokeExact(files);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static int open(String fileName, String mode) {
+        try {
+            return (int) OPEN.invokeExact(fileName, mode);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static int read(int fd, byte[] buffer) {
+        try {
+            return (int) READ.invokeExact(fd, buffer);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static int write(int fd, byte[] buffer) {
+        try {
+            return (int) WRITE.invokeExact(fd, buffer);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static int pread(int fd, byte[] buffer, int offset) {
+        try {
+            return (int) PREAD.invokeExact(fd, buffer, offset);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static int pwrite(int fd, byte[] buffer, int offset) {
+        try {
+            return (int) PWRITE.invokeExact(fd, buffer, offset);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static int seek(int fd, int offset, int whence) {
+        try {
+            return (int) SEEK.invokeExact(fd, offset, whence);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static int fsize(int fd) {
+        try {
+            return (int) FSIZE.invokeExact(fd);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static int close(int fd) {
+        try {
+            return (int) CLOSE.invokeExact(fd);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static int delete(String fileName) {
+        try {
+            return (int) DELETE.invokeExact(fileName);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static int mkdir(String path) {
+        try {
+            return (int) MKDIR.invokeExact(path);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static int sync() {
+        return invoke(SYNC);
+    }
+
+    /*
+     * Returns the block cache's hits and misses since boot
+     */
+    static long[] cacheStats() {
+        long[] stats = new long[2];
+        try {
+            check((int) CSTATS.invokeExact(stats), "cstats");
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+        return stats;
+    }
+
+    /*
+     * Returns the directory of the booted file system, for namei
+     */
+    static Object directory() {
+        try {
+            Field fs = Class.forName("Kernel").getDeclaredField("fs");
+            fs.setAccessible(true);
+            Object fileSystem = fs.get(null);
+            Field directory = fileSystem.getClass().getDeclaredField("directory");
+            directory.setAccessible(true);
+            return directory.get(fileSystem);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /*
+     * Directory.namei on the directory returned by directory()
+     */
+    static short namei(Object directory, String fileName) {
+        try {
+            return (short) NAMEI.invokeExact(directory, fileName);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /*
+     * Fails the benchmark setup if a syscall did not succeed
+     */
+    static int check(int result, String what) {
+        if (result < 0) {
+            throw new IllegalStateException(what + " failed: " + result);
+        }
+        return result;
+    }
+
+    /*
+     * Fails the benchmark if a read or write did not move the whole buffer, such as a write to a full disk
+     */
+    static int checkAll(int result, int length, String what) {
+        if (result != length) {
+            throw new IllegalStateException(what + " moved " + result + " of " + length + " bytes");
+        }
+        return result;
+    }
+
+    private static int invoke(MethodHandle noArgs) {
+        try {
+            return (int) noArgs.invokeExact();
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    private static MethodHandle sysLib(String name, Class<?> returnType, Class<?>... parameterTypes) {
+        try {
+            return MethodHandles.lookup().findStatic(Class.forName("SysLib"), name,
+                    MethodType.methodType(returnType, parameterTypes));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle namei() {
+        try {
+            Class<?> directory = Class.forName("Directory");
+            return MethodHandles.lookup()
+                    .findVirtual(directory, "namei", MethodType.methodType(short.class, String.class))
+                    .asType(MethodType.methodType(short.class, Object.class, String.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) {
+            return (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return new IllegalStateException(t);
+    }
+}
@@ -0,0 +1,60 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/*
+ * Andrew Montgomery, Daniel Yakovlev
+ * Reads of a file small enough to be kept in its inode, at offsets in, at and past the end of the file.
+ */
+public class InlineFileTest {
+    private static final byte[] DATA = "hello".getBytes();
+
+    private int fd;
+
+    @BeforeAll
+    public static void boot() {
+        SysLib.boot();
+        assertEquals(0, SysLib.format(64));
+    }
+
+    @BeforeEach
+    public void open() {
+        fd = SysLib.open("inline", "w+");
+        assertEquals(DATA.length, SysLib.write(fd, DATA));
+    }
+
+    @AfterEach
+    public void close() {
+        SysLib.close(fd);
+    }
+
+    @Test
+    public void preadInsideFile() {
+        byte[] buffer = new byte[10];
+        assertEquals(3, SysLib.pread(fd, buffer, 2));
+        assertArrayEquals("llo".getBytes(), Arrays.copyOf(buffer, 3));
+    }
+
+    @Test
+    public void preadAtOrPastEnd() {
+        assertEquals(0, SysLib.pread(fd, new byte[10], DATA.length));
+        assertEquals(0, SysLib.pread(fd, new byte[10], 100));
+    }
+
+    @Test
+    public void readAsyncPastEnd() {
+        assertEquals(0, SysLib.readAsync(fd, new byte[10], 100).join());
+    }
+
+    @Test
+    public void readAtEnd() {
+        SysLib.seek(fd, 0, 2);
+        assertEquals(0, SysLib.read(fd, new byte[10]));
+    }
+}
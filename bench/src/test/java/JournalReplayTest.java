@@ -0,0 +1,139 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+/*
+ * Andrew Montgomery, Daniel Yakovlev
+ * Crash recovery through the metadata journal. A program commits a file by closing it and then stops without
+ * syncing, so the metadata is only in the journal and in the cache, which is lost. Mounting the disk image again
+ * must replay the journal. Each run of ThreadOS is its own JVM, on a mapped disk image that outlives it.
+ */
+public class JournalReplayTest {
+    private static final int FILE_SIZE = 5000;
+    private static final int BLOCK_SIZE = 4096;
+
+    @Test
+    public void committedFileSurvivesCrash() throws Exception {
+        File image = File.createTempFile("journal", ".disk");
+        File torn = File.createTempFile("journal-torn", ".disk");
+        try {
+            assertEquals(0, run(Crash.class, image).exitCode);
+
+            // Without the commit block the transaction must be ignored, so anything found below came from it
+            Files.copy(image.toPath(), torn.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            clearCommitBlock(torn);
+
+            assertEquals("kept " + FILE_SIZE + " same lost -1", run(Mount.class, image).output);
+            assertEquals("kept -1 lost -1", run(Mount.class, torn).output);
+        } finally {
+            image.delete();
+            torn.delete();
+        }
+    }
+
+    /*
+     * Formats the disk, commits one file and leaves another one open, then stops the JVM without syncing
+     */
+    public static class Crash {
+        public static void main(String[] args) {
+            SysLib.boot();
+            SysLib.format(64);
+            SysLib.mkdir("/d");
+            int fd = SysLib.open("/d/kept", "w");
+            SysLib.write(fd, data());
+            SysLib.close(fd);                                   // Commits the transaction
+
+            fd = SysLib.open("/lost", "w");                     // Never committed
+            SysLib.write(fd, data());
+            Runtime.getRuntime().halt(0);
+        }
+    }
+
+    /*
+     * Mounts the disk and prints what it finds: the committed file's size and whether its data is the same, and
+     * the result of opening the file that was never committed
+     */
+    public static class Mount {
+        public static void main(String[] args) {
+            SysLib.boot();
+            StringBuilder found = new StringBuilder("kept ");
+            int fd = SysLib.open("/d/kept", "r");
+            if (fd < 0) {
+                found.append(fd);
+            } else {
+                byte[] buffer = new byte[FILE_SIZE];
+                int read = SysLib.read(fd, buffer);
+                found.append(SysLib.fsize(fd)).append(Arrays.equals(buffer, data()) && read == FILE_SIZE
+                        ? " same" : " changed");
+            }
+            found.append(" lost ").append(SysLib.open("/lost", "r"));
+            System.out.println(found);
+            Runtime.getRuntime().halt(0);
+        }
+    }
+
+    private static byte[] data() {
+        byte[] data = new byte[FILE_SIZE];
+        for (int i = 0; i < FILE_SIZE; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        return data;
+    }
+
+    /*
+     * Zeroes the commit block of the transaction in the journal of a disk image
+     */
+    private static void clearCommitBlock(File image) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(image, "rw")) {
+            file.seek(24);
+            int journalStart = file.readInt();
+            file.seek((long) journalStart * BLOCK_SIZE + 8);
+            int count = file.readInt();
+            file.seek((long) (journalStart + 1 + count) * BLOCK_SIZE);
+            file.write(new byte[BLOCK_SIZE]);
+        }
+    }
+
+    private static final class Result {
+        final int exitCode;
+        final String output;
+
+        Result(int exitCode, String output) {
+            this.exitCode = exitCode;
+            this.output = output;
+        }
+    }
+
+    /*
+     * Runs a program of this class in a new JVM on the mapped disk image, and returns its exit code and the last
+     * line it printed
+     */
+    private static Result run(Class<?> program, File image) throws IOException, InterruptedException {
+        ProcessBuilder builder = new ProcessBuilder(
+                System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+                "-cp", System.getProperty("java.class.path"),
+                "-Dthreados.disk=mapped",
+                "-Dthreados.disk.image=" + image.getPath(),
+                "-Dthreados.disk.blocks=4096",
+                "-Dthreados.disk.blockSize=" + BLOCK_SIZE,
+                program.getName());
+        builder.redirectErrorStream(true);
+        Process process = builder.start();
+        String last = "";
+        try (BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            for (String line = output.readLine(); line != null; line = output.readLine()) {
+                last = line;
+            }
+        }
+        return new Result(process.waitFor(), last);
+    }
+}